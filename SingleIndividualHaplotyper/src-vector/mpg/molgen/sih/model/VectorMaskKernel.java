@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * SingleIndividualHaplotyper - Efficient heuristic algorithms for the SIH problem
+ * Copyright 2011 Jorge Duitama
+ *
+ * This file is part of SingleIndividualHaplotyper.
+ *
+ *     SingleIndividualHaplotyper is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     SingleIndividualHaplotyper is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with SingleIndividualHaplotyper.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package mpg.molgen.sih.model;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Mask kernel using the incubating vector API. It is compiled separately because it
+ * requires the module jdk.incubator.vector. Short masks are delegated to the scalar kernel.
+ * If the JDK does not provide a lane-wise bit count, population counts are calculated
+ * per byte with shifts and masks
+ */
+public class VectorMaskKernel extends MaskKernel {
+	private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+	//Lane-wise population count operator. Available only from JDK 19
+	private static final VectorOperators.Unary BIT_COUNT = loadBitCountOperator();
+	private static final long M1 = 0x5555555555555555L;
+	private static final long M2 = 0x3333333333333333L;
+	private static final long M4 = 0x0f0f0f0f0f0f0f0fL;
+	//Each byte of the partial counts grows at most by 8 per iteration
+	private static final int MAX_BYTE_ITERATIONS = 31;
+	//Below this number of words the hardware population count of the scalar kernel is faster
+	private static final int MIN_WORDS = 128;
+
+	private static VectorOperators.Unary loadBitCountOperator() {
+		try {
+			return (VectorOperators.Unary)VectorOperators.class.getField("BIT_COUNT").get(null);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+	@Override
+	public long count(long [] calls1, long [] alleles1, int offset1, long [] calls2, long [] alleles2, int offset2, int nWords) {
+		int lanes = SPECIES.length();
+		if(nWords < getMinWords()) {
+			return super.count(calls1, alleles1, offset1, calls2, alleles2, offset2, nWords);
+		}
+		int upper = SPECIES.loopBound(nWords);
+		long total = 0;
+		long disagree = 0;
+		int i=0;
+		if(BIT_COUNT!=null) {
+			LongVector totalCounts = LongVector.zero(SPECIES);
+			LongVector disagreeCounts = LongVector.zero(SPECIES);
+			for(;i<upper;i+=lanes) {
+				LongVector common = LongVector.fromArray(SPECIES, calls1, offset1+i).and(LongVector.fromArray(SPECIES, calls2, offset2+i));
+				LongVector diff = LongVector.fromArray(SPECIES, alleles1, offset1+i).lanewise(VectorOperators.XOR, LongVector.fromArray(SPECIES, alleles2, offset2+i));
+				totalCounts = totalCounts.add(common.lanewise(BIT_COUNT));
+				disagreeCounts = disagreeCounts.add(common.and(diff).lanewise(BIT_COUNT));
+			}
+			total = totalCounts.reduceLanes(VectorOperators.ADD);
+			disagree = disagreeCounts.reduceLanes(VectorOperators.ADD);
+		} else {
+			while(i<upper) {
+				//Accumulate per byte counts and add them up only every MAX_BYTE_ITERATIONS iterations
+				LongVector totalCounts = LongVector.zero(SPECIES);
+				LongVector disagreeCounts = LongVector.zero(SPECIES);
+				int blockUpper = Math.min(upper, i+MAX_BYTE_ITERATIONS*lanes);
+				for(;i<blockUpper;i+=lanes) {
+					LongVector common = LongVector.fromArray(SPECIES, calls1, offset1+i).and(LongVector.fromArray(SPECIES, calls2, offset2+i));
+					LongVector diff = LongVector.fromArray(SPECIES, alleles1, offset1+i).lanewise(VectorOperators.XOR, LongVector.fromArray(SPECIES, alleles2, offset2+i));
+					totalCounts = totalCounts.add(byteCounts(common));
+					disagreeCounts = disagreeCounts.add(byteCounts(common.and(diff)));
+				}
+				total += sumBytes(totalCounts);
+				disagree += sumBytes(disagreeCounts);
+			}
+		}
+		for(;i<nWords;i++) {
+			long common = calls1[offset1+i] & calls2[offset2+i];
+			total += Long.bitCount(common);
+			disagree += Long.bitCount(common & (alleles1[offset1+i] ^ alleles2[offset2+i]));
+		}
+		return pack((int)disagree,(int)total);
+	}
+	/**
+	 * @return Vector with the number of bits set in each byte of v
+	 */
+	private static LongVector byteCounts(LongVector v) {
+		v = v.sub(v.lanewise(VectorOperators.LSHR, 1).and(M1));
+		v = v.and(M2).add(v.lanewise(VectorOperators.LSHR, 2).and(M2));
+		return v.add(v.lanewise(VectorOperators.LSHR, 4)).and(M4);
+	}
+	private static long sumBytes(LongVector v) {
+		long answer = 0;
+		for(int j=0;j<8;j++) {
+			answer += v.lanewise(VectorOperators.LSHR, 8*j).and(0xff).reduceLanes(VectorOperators.ADD);
+		}
+		return answer;
+	}
+	@Override
+	public int getMinWords() {
+		return Math.max(MIN_WORDS, 2*SPECIES.length());
+	}
+	@Override
+	public String getName() {
+		return "vector("+SPECIES.length()+" lanes)";
+	}
+}
@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * SingleIndividualHaplotyper - Efficient heuristic algorithms for the SIH problem
+ * Copyright 2011 Jorge Duitama
+ *
+ * This file is part of SingleIndividualHaplotyper.
+ *
+ *     SingleIndividualHaplotyper is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     SingleIndividualHaplotyper is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with SingleIndividualHaplotyper.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package mpg.molgen.sih.algorithms;
+
+import java.util.Arrays;
+
+import mpg.molgen.sih.model.Block;
+import mpg.molgen.sih.model.CallMatrix;
+import mpg.molgen.sih.model.Fragment;
+import mpg.molgen.sih.model.MECEvaluator;
+
+/**
+ * Consensus haplotype of a cut kept up to date while fragments change side. The votes of both
+ * sides are kept per SNP, so flipping a fragment updates only the SNPs called by the fragment.
+ * The haplotype is the same as CutHaplotypeTranslator.getHaplotype with CONSENSUS_COMBINED
+ */
+public class CutConsensus {
+	//Row view of the call matrix of the block
+	private int [] rowOffsets;
+	private int [] rowColumns;
+	private char [] rowAlleles;
+	private int [] multiplicities;
+	private boolean [] cut;
+	//Multiplicity of the calls at each SNP and multiplicity of the calls voting for allele 1
+	private int [] votes;
+	private int [] votesAllele1;
+	private char [] haplotype;
+	//SNPs whose consensus may differ from the haplotype at the last poll and alleles at that time
+	private int [] changed;
+	private int nChanged = 0;
+	private boolean [] marked;
+	private char [] polledAlleles;
+	
+	/**
+	 * @param b Block to phase
+	 * @param cut Initial cut of the fragments of the block. It is modified by flipFragment
+	 */
+	public CutConsensus(Block b, boolean [] cut) {
+		CallMatrix matrix = b.getCallMatrix();
+		rowOffsets = matrix.getRowOffsets();
+		rowColumns = matrix.getRowColumns();
+		rowAlleles = matrix.getRowAlleles();
+		multiplicities = matrix.getMultiplicities();
+		int n = matrix.getNumColumns();
+		votes = new int [n];
+		votesAllele1 = new int [n];
+		haplotype = new char [n];
+		changed = new int [n];
+		marked = new boolean [n];
+		polledAlleles = new char [n];
+		setCut(cut);
+	}
+	/**
+	 * Recalculates the votes for a new cut. The next poll reports the SNPs that changed
+	 * with respect to the last poll
+	 * @param cut Cut of the fragments of the block. It is modified by flipFragment
+	 */
+	public void setCut(boolean [] cut) {
+		this.cut = cut;
+		Arrays.fill(votes, 0);
+		Arrays.fill(votesAllele1, 0);
+		for(int i=0;i<multiplicities.length;i++) {
+			int m = multiplicities[i];
+			for(int e=rowOffsets[i];e<rowOffsets[i+1];e++) {
+				int j = rowColumns[e];
+				votes[j]+=m;
+				if((rowAlleles[e]==Fragment.ALLELE1CHAR) != cut[i]) {
+					votesAllele1[j]+=m;
+				}
+			}
+		}
+		for(int j=0;j<haplotype.length;j++) {
+			updateSNP(j);
+		}
+	}
+	/**
+	 * Moves one fragment to the other side of the cut
+	 * @param i Index of the fragment in the block
+	 */
+	public void flipFragment(int i) {
+		int m = multiplicities[i];
+		for(int e=rowOffsets[i];e<rowOffsets[i+1];e++) {
+			int j = rowColumns[e];
+			if((rowAlleles[e]==Fragment.ALLELE1CHAR) != cut[i]) {
+				votesAllele1[j]-=m;
+			} else {
+				votesAllele1[j]+=m;
+			}
+			updateSNP(j);
+		}
+		cut[i] = !cut[i];
+	}
+	/**
+	 * @param i Index of the fragment in the block
+	 * @param side New side of the fragment
+	 */
+	public void setSide(int i, boolean side) {
+		if(cut[i]!=side) {
+			flipFragment(i);
+		}
+	}
+	private void updateSNP(int j) {
+		char c;
+		if (2*votesAllele1[j] < votes[j]) {
+			c = Fragment.ALLELE2CHAR;
+		} else if (2*votesAllele1[j] > votes[j]){
+			c = Fragment.ALLELE1CHAR;
+		} else {
+			c = Fragment.NODATACHAR;
+		}
+		if(c!=haplotype[j] && !marked[j]) {
+			marked[j] = true;
+			polledAlleles[j] = haplotype[j];
+			changed[nChanged] = j;
+			nChanged++;
+		}
+		haplotype[j] = c;
+	}
+	/**
+	 * Reports the SNPs whose consensus allele changed since the last call to this method
+	 * @return Relative positions of the changed SNPs in the order in which they first changed
+	 */
+	public int [] pollChangedSNPs() {
+		int count = 0;
+		for(int l=0;l<nChanged;l++) {
+			int j = changed[l];
+			marked[j] = false;
+			if(haplotype[j]!=polledAlleles[j]) {
+				changed[count] = j;
+				count++;
+			}
+		}
+		nChanged = 0;
+		return Arrays.copyOf(changed, count);
+	}
+	/**
+	 * Sets in the given evaluator the SNPs that changed since the last poll
+	 * @param evaluator Evaluator whose haplotype was the consensus at the last poll
+	 * @return true if at least one SNP changed
+	 */
+	public boolean updateEvaluator(MECEvaluator evaluator) {
+		int [] changedSNPs = pollChangedSNPs();
+		for(int l=0;l<changedSNPs.length;l++) {
+			int j = changedSNPs[l];
+			evaluator.setSNP(j, haplotype[j]);
+		}
+		return changedSNPs.length>0;
+	}
+	/**
+	 * @param relPos Position of the SNP relative to the first position of the block
+	 * @return Consensus allele of the SNP or Fragment.NODATACHAR if both alleles have the same votes
+	 */
+	public char getAllele(int relPos) {
+		return haplotype[relPos];
+	}
+	public String getHaplotype() {
+		return new String(haplotype);
+	}
+}
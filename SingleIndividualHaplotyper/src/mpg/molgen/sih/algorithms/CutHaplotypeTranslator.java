@@ -19,9 +19,8 @@
  *******************************************************************************/
 package mpg.molgen.sih.algorithms;
 
-import java.util.List;
-
 import mpg.molgen.sih.model.Block;
+import mpg.molgen.sih.model.CallMatrix;
 import mpg.molgen.sih.model.Fragment;
 
 public class CutHaplotypeTranslator {
@@ -30,100 +29,87 @@ public class CutHaplotypeTranslator {
 	public static final int CONSENSUS_COMBINED = 3;
 	public static final int CONSENSUS_ALL = 4;
 	public static String getHaplotype(Block b, boolean[] cut, int consensusType) {
-		int pos=b.getFirstPos();
-		int lastPos = b.getLastPos();
-		StringBuilder haplotype = new StringBuilder(lastPos-pos+1);
-		List <Fragment> fragments = b.getFragments();
-		int i=0;
-		for(;pos <=lastPos;pos++) {
-			while(i<fragments.size() && fragments.get(i).getLastPos()<pos) {
-				i++;
-			}
+		CallMatrix matrix = b.getCallMatrix();
+		int [] columnOffsets = matrix.getColumnOffsets();
+		int [] columnRows = matrix.getColumnRows();
+		char [] columnAlleles = matrix.getColumnAlleles();
+		int [] multiplicities = matrix.getMultiplicities();
+		char [] haplotype = new char [matrix.getNumColumns()];
+		for(int pos=0;pos<haplotype.length;pos++) {
 			int votesAllele1 = 0;
 			int votes=0;
-			for(int j=i;j<fragments.size();j++) {
-				Fragment f2 = fragments.get(j);
-				if(f2.getFirstPos()>pos) {
-					break;
-				}
-				char call = f2.getCall(pos);
-				if(call != Fragment.NODATACHAR) {
-					if(consensusType == CONSENSUS_COMBINED) {
-						votes++;
-						if((call == Fragment.ALLELE1CHAR && !cut[j])|| (call!=Fragment.ALLELE1CHAR&& cut[j]) ) {
-							votesAllele1++;
-						}
-					} else if (consensusType == CONSENSUS_GROUP_1 && !cut[j]) {
-						votes++;
-						if(call == Fragment.ALLELE1CHAR) {
-							votesAllele1++;
-						}
-					} else if (consensusType == CONSENSUS_GROUP_2 && cut[j]) {
-						votes++;
-						if(call == Fragment.ALLELE1CHAR) {
-							votesAllele1++;
-						}
-					} else if (consensusType == CONSENSUS_ALL) {
-						votes++;
-						if(call == Fragment.ALLELE1CHAR) {
-							votesAllele1++;
-						}
+			for(int e=columnOffsets[pos];e<columnOffsets[pos+1];e++) {
+				int j = columnRows[e];
+				char call = columnAlleles[e];
+				int m = multiplicities[j];
+				if(consensusType == CONSENSUS_COMBINED) {
+					votes+=m;
+					if((call == Fragment.ALLELE1CHAR && !cut[j])|| (call!=Fragment.ALLELE1CHAR&& cut[j]) ) {
+						votesAllele1+=m;
+					}
+				} else if (consensusType == CONSENSUS_GROUP_1 && !cut[j]) {
+					votes+=m;
+					if(call == Fragment.ALLELE1CHAR) {
+						votesAllele1+=m;
+					}
+				} else if (consensusType == CONSENSUS_GROUP_2 && cut[j]) {
+					votes+=m;
+					if(call == Fragment.ALLELE1CHAR) {
+						votesAllele1+=m;
+					}
+				} else if (consensusType == CONSENSUS_ALL) {
+					votes+=m;
+					if(call == Fragment.ALLELE1CHAR) {
+						votesAllele1+=m;
 					}
 				}
 			}
 			if (2*votesAllele1 < votes) {
-				haplotype.append(Fragment.ALLELE2CHAR);
+				haplotype[pos] = Fragment.ALLELE2CHAR;
 			} else if (2*votesAllele1 > votes){
-				haplotype.append(Fragment.ALLELE1CHAR);
+				haplotype[pos] = Fragment.ALLELE1CHAR;
 			} else {
-				haplotype.append(Fragment.NODATACHAR);
+				haplotype[pos] = Fragment.NODATACHAR;
 			}
 		}
-		return haplotype.toString();
+		return new String(haplotype);
 	}
 	public static String getHaplotype(Block b, boolean[] cut, double[] fragmentScores) {
-		
-		int pos=b.getFirstPos();
-		int lastPos = b.getLastPos();
-		StringBuilder haplotype = new StringBuilder(lastPos-pos+1);
-		List <Fragment> fragments = b.getFragments();
-		int i=0;
-		for(;pos <=lastPos;pos++) {
-			while(i<fragments.size() && fragments.get(i).getLastPos()<pos) {
-				i++;
-			}
+		CallMatrix matrix = b.getCallMatrix();
+		int [] columnOffsets = matrix.getColumnOffsets();
+		int [] columnRows = matrix.getColumnRows();
+		char [] columnAlleles = matrix.getColumnAlleles();
+		int [] multiplicities = matrix.getMultiplicities();
+		char [] haplotype = new char [matrix.getNumColumns()];
+		for(int pos=0;pos<haplotype.length;pos++) {
 			double scoreAllele1=0;
 			double scoreAllele2=0;
 			int votesAllele1 = 0;
 			int votes=0;
-			for(int j=i;j<fragments.size();j++) {
-				Fragment f2 = fragments.get(j);
-				if(f2.getFirstPos()>pos) {
-					break;
-				}
-				char call = f2.getCall(pos);
-				if(call != Fragment.NODATACHAR) {
-					votes++;
-					if((call == Fragment.ALLELE1CHAR && !cut[j])|| (call!=Fragment.ALLELE1CHAR&& cut[j]) ) {
-						scoreAllele1+=fragmentScores[j];
-						votesAllele1++;
-					} else {
-						scoreAllele2+=fragmentScores[j];
-					}
+			for(int e=columnOffsets[pos];e<columnOffsets[pos+1];e++) {
+				int j = columnRows[e];
+				char call = columnAlleles[e];
+				int m = multiplicities[j];
+				votes+=m;
+				if((call == Fragment.ALLELE1CHAR && !cut[j])|| (call!=Fragment.ALLELE1CHAR&& cut[j]) ) {
+					scoreAllele1+=m*fragmentScores[j];
+					votesAllele1+=m;
+				} else {
+					scoreAllele2+=m*fragmentScores[j];
 				}
 			}
 			if (scoreAllele1 > scoreAllele2) {
-				haplotype.append(Fragment.ALLELE1CHAR);
+				haplotype[pos] = Fragment.ALLELE1CHAR;
 			} else if (scoreAllele2 > scoreAllele1 ) {
-				haplotype.append(Fragment.ALLELE2CHAR);
+				haplotype[pos] = Fragment.ALLELE2CHAR;
 			} else if (2*votesAllele1 < votes) {
-				haplotype.append(Fragment.ALLELE2CHAR);
+				haplotype[pos] = Fragment.ALLELE2CHAR;
 			} else if (2*votesAllele1 > votes){
-				haplotype.append(Fragment.ALLELE1CHAR);
+				haplotype[pos] = Fragment.ALLELE1CHAR;
 			} else {
-				haplotype.append(Fragment.NODATACHAR);
+				haplotype[pos] = Fragment.NODATACHAR;
 			}
 		}
-		return haplotype.toString();
+		return new String(haplotype);
 	}
 }
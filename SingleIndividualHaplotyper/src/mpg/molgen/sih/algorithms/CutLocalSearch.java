@@ -0,0 +1,224 @@
+/*******************************************************************************
+ * SingleIndividualHaplotyper - Efficient heuristic algorithms for the SIH problem
+ * Copyright 2011 Jorge Duitama
+ *
+ * This file is part of SingleIndividualHaplotyper.
+ *
+ *     SingleIndividualHaplotyper is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     SingleIndividualHaplotyper is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with SingleIndividualHaplotyper.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package mpg.molgen.sih.algorithms;
+
+import mpg.molgen.sih.model.FragmentGraph;
+
+/**
+ * Local search for the max-cut of a fragments graph in the style of Fiduccia-Mattheyses.
+ * The gain of flipping each vertex is kept in a heap and after each flip only the gains of the
+ * neighbors are updated. The first heuristic flips the vertex with the largest positive gain.
+ * The second heuristic flips both ends of the edge with the largest positive gain,
+ * scanning edges in the given order. Ties are broken as in a linear scan keeping the first maximum
+ */
+public class CutLocalSearch {
+	private FragmentGraph graph;
+	private int [] offsets;
+	private int [] neighbors;
+	private int [] weights;
+	private int [] adjacentEdges;
+	//Edges in the order used to break ties and position of each edge in that order
+	private int [] edgeOrder;
+	private int [] edgeRanks;
+	private boolean [] cut;
+	//Change in the cut weight if each vertex is flipped
+	private long [] gains;
+	//Initial gains of flipping both ends of each edge, indexed by position in edgeOrder
+	private long [] pairGains;
+	//Vertices whose gain can change after flipping both ends of an edge, and their gains before the flip
+	private int [] affected;
+	private boolean [] isAffected;
+	private long [] previousGains;
+	private boolean [] gainChanged;
+	private IndexedMaxHeap vertexHeap;
+	private IndexedMaxHeap edgeHeap;
+	private long score;
+	
+	/**
+	 * @param graph Graph to cut
+	 * @param edgeOrder Order in which edges are scanned by the second heuristic
+	 */
+	public CutLocalSearch(FragmentGraph graph, int [] edgeOrder) {
+		this.graph = graph;
+		this.offsets = graph.getOffsets();
+		this.neighbors = graph.getNeighbors();
+		this.weights = graph.getWeights();
+		this.adjacentEdges = graph.getAdjacentEdges();
+		this.edgeOrder = edgeOrder;
+		edgeRanks = new int [edgeOrder.length];
+		for(int i=0;i<edgeOrder.length;i++) {
+			edgeRanks[edgeOrder[i]] = i;
+		}
+		int n = graph.getNumVertices();
+		gains = new long [n];
+		pairGains = new long [edgeOrder.length];
+		affected = new int [n];
+		isAffected = new boolean [n];
+		previousGains = new long [n];
+		gainChanged = new boolean [n];
+		vertexHeap = new IndexedMaxHeap(n);
+		edgeHeap = new IndexedMaxHeap(edgeOrder.length);
+	}
+	/**
+	 * Improves the given cut until no single vertex or edge flip increases the weight of the cut
+	 * @param cut Cut to improve. It is modified by this method
+	 * @return Weight of the final cut
+	 */
+	public long optimize(boolean [] cut) {
+		this.cut = cut;
+		score = graph.getCutWeight(cut);
+		for(int v=0;v<gains.length;v++) {
+			gains[v] = calculateGain(v);
+		}
+		vertexHeap.fill(gains, gains.length);
+		boolean improvement = true;
+		while(improvement) {
+			heuristic1();
+			improvement = heuristic2();
+		}
+		return score;
+	}
+	/**
+	 * @return Weight of the last cut optimized
+	 */
+	public long getScore() {
+		return score;
+	}
+	private long calculateGain(int v) {
+		boolean g1 = cut[v];
+		long answer = 0;
+		for(int k=offsets[v];k<offsets[v+1];k++) {
+			if(g1 == cut[neighbors[k]]) {
+				answer += weights[k];
+			} else {
+				answer -= weights[k];
+			}
+		}
+		return answer;
+	}
+	private void heuristic1() {
+		while(!vertexHeap.isEmpty()) {
+			int v = vertexHeap.peek();
+			if(gains[v] <= 0) {
+				break;
+			}
+			flipVertex(v);
+		}
+	}
+	private boolean heuristic2() {
+		int nEdges = edgeOrder.length;
+		for(int r=0;r<nEdges;r++) {
+			pairGains[r] = calculatePairGain(edgeOrder[r]);
+		}
+		edgeHeap.fill(pairGains, nEdges);
+		boolean totalImp = false;
+		while(!edgeHeap.isEmpty()) {
+			int r = edgeHeap.peek();
+			if(edgeHeap.getKey(r) <= 0) {
+				break;
+			}
+			int e = edgeOrder[r];
+			int v1 = graph.getEdgeVertex1(e);
+			int v2 = graph.getEdgeVertex2(e);
+			int nAffected = 0;
+			nAffected = addAffected(v1, nAffected);
+			nAffected = addAffected(v2, nAffected);
+			for(int k=offsets[v1];k<offsets[v1+1];k++) {
+				nAffected = addAffected(neighbors[k], nAffected);
+			}
+			for(int k=offsets[v2];k<offsets[v2+1];k++) {
+				nAffected = addAffected(neighbors[k], nAffected);
+			}
+			flipVertex(v1);
+			flipVertex(v2);
+			//The ends of the flipped edge change side. Other vertices matter only if their gain changed
+			for(int i=0;i<nAffected;i++) {
+				int u = affected[i];
+				gainChanged[u] = u==v1 || u==v2 || gains[u]!=previousGains[u];
+			}
+			for(int i=0;i<nAffected;i++) {
+				int u = affected[i];
+				if(gainChanged[u]) {
+					updatePairGains(u);
+				}
+			}
+			for(int i=0;i<nAffected;i++) {
+				int u = affected[i];
+				isAffected[u] = false;
+				gainChanged[u] = false;
+			}
+			totalImp = true;
+		}
+		edgeHeap.clear();
+		return totalImp;
+	}
+	private int addAffected(int v, int nAffected) {
+		if(!isAffected[v]) {
+			isAffected[v] = true;
+			previousGains[v] = gains[v];
+			affected[nAffected] = v;
+			nAffected++;
+		}
+		return nAffected;
+	}
+	private long calculatePairGain(int e) {
+		int v1 = graph.getEdgeVertex1(e);
+		int v2 = graph.getEdgeVertex2(e);
+		int weight = graph.getEdgeWeight(e);
+		if(cut[v1]==cut[v2]) {
+			return gains[v1]+gains[v2]-2L*weight;
+		}
+		return gains[v1]+gains[v2]+2L*weight;
+	}
+	/**
+	 * Updates the gains of the edges of the given vertex. Edges between two vertices
+	 * whose gain changed are updated only from the vertex with the smallest index
+	 */
+	private void updatePairGains(int v) {
+		for(int k=offsets[v];k<offsets[v+1];k++) {
+			int u = neighbors[k];
+			if(gainChanged[u] && u < v) {
+				continue;
+			}
+			int e = adjacentEdges[k];
+			edgeHeap.put(edgeRanks[e], calculatePairGain(e));
+		}
+	}
+	/**
+	 * Flips the given vertex and updates the gains of the vertex and its neighbors
+	 */
+	private void flipVertex(int v) {
+		score += gains[v];
+		boolean g1 = cut[v];
+		for(int k=offsets[v];k<offsets[v+1];k++) {
+			int u = neighbors[k];
+			//Edges to vertices in the same group start crossing the cut and viceversa
+			if(cut[u] == g1) {
+				gains[u] -= 2L*weights[k];
+			} else {
+				gains[u] += 2L*weights[k];
+			}
+			vertexHeap.put(u, gains[u]);
+		}
+		cut[v] = !g1;
+		gains[v] = -gains[v];
+		vertexHeap.put(v, gains[v]);
+	}
+}
@@ -19,104 +19,116 @@
  *******************************************************************************/
 package mpg.molgen.sih.algorithms;
 
-import java.util.List;
+import java.util.Arrays;
 
 import mpg.molgen.sih.model.Block;
+import mpg.molgen.sih.model.CallMatrix;
 import mpg.molgen.sih.model.Fragment;
+import mpg.molgen.sih.model.MECEvaluator;
 
 public class DGSAlgorithm implements SIHAlgorithm {
 	private boolean [] cut;
-	private String haplotype="";
+	private MECEvaluator evaluator;
 	@Override
 	public void buildHaplotype(Block b) {
 		cut = new boolean [b.getFragments().size()];
+		evaluator = new MECEvaluator(b);
 		initCut(b);
+		CutConsensus consensus = new CutConsensus(b, cut);
+		//The evaluator keeps the last consensus. It is not updated if the cut does not change the consensus
 		for (int i=0;i<1000;i++) {
-			String newhap=CutHaplotypeTranslator.getHaplotype(b, cut, CutHaplotypeTranslator.CONSENSUS_COMBINED);
-			if(newhap.equals(haplotype)) {
+			if(!consensus.updateEvaluator(evaluator)) {
 				break;
 			}
-			haplotype = newhap;
-			updateCut( b);
+			updateCut(consensus);
 		}
-		b.setHaplotype(haplotype);
+		b.setHaplotype(evaluator.getHaplotype());
 
 	}
+	/**
+	 * Assigns fragments greedily starting from the fragment with more calls. The next fragment is the
+	 * fragment with the largest absolute score against the partial haplotype. Scores are kept in a heap
+	 * and only the fragments with calls at newly phased SNPs are updated after each assignment
+	 */
 	private void initCut(Block b) {
-		List<Fragment> fragments = b.getFragments();
-		char [] hap = new char [b.length()];
-		 
-		for(int i=0;i<hap.length;i++) {
-			hap[i] = Fragment.NODATACHAR;
-		}
-		boolean [] assigned = new boolean [fragments.size()];
-		for(int i=0;i<assigned.length;i++) {
-			assigned[i] = false;
-		}
+		CallMatrix matrix = b.getCallMatrix();
+		int [] rowOffsets = matrix.getRowOffsets();
+		int n = matrix.getNumRows();
+		char [] hap = new char [matrix.getNumColumns()];
+		Arrays.fill(hap, Fragment.NODATACHAR);
 		//Get the fragment with larger number of calls
 		int maxC=0;
 		int maxI=0;
-		for(int i=0;i<fragments.size();i++) {
-			int calls = fragments.get(i).getnCalls();
+		for(int i=0;i<n;i++) {
+			int calls = rowOffsets[i+1]-rowOffsets[i];
 			if(calls>maxC) {
 				maxC=calls;
 				maxI=i;
 			}
 		}
-		Fragment f = fragments.get(maxI);
-		assigned[maxI] = true;
+		//Multiplicity times hamming2 to the partial haplotype of each unassigned fragment
+		int [] scores = new int [n];
+		IndexedMaxHeap unassigned = new IndexedMaxHeap(n);
+		unassigned.fill(new long [n], n);
+		unassigned.remove(maxI);
 		cut[maxI] = false;
-		updateHaplotype(hap, b.getFirstPos(), f,false);
+		updateHaplotype(hap, matrix, maxI, false, scores, unassigned);
 		//Assign the other fragments
-		for(int i=0;i<fragments.size()-1;i++) {
-			int maxAbsScore =0;
+		for(int i=0;i<n-1;i++) {
 			int maxJ = 0;
-			int maxScore =0;
-			//Find the best next fragment
-			for(int j=0;j<fragments.size();j++) {
-				if(!assigned[j]) {
-					f = fragments.get(j);
-					int score = f.getHamming2(new String(hap),b.getFirstPos());
-					int absScore = Math.abs(score);
-					if(absScore > maxAbsScore) {
-						maxAbsScore = absScore;
-						maxJ = j;
-						maxScore = score;
-					}
-				}
+			int maxScore = 0;
+			if(!unassigned.isEmpty() && unassigned.getKey(unassigned.peek())>0) {
+				maxJ = unassigned.peek();
+				maxScore = scores[maxJ];
 			}
-			f = fragments.get(maxJ);
-			assigned[maxJ] = true;
-			cut[maxJ] = (maxScore==maxAbsScore);
-			updateHaplotype(hap, b.getFirstPos(), f, cut[maxJ]);
+			//If no fragment has a positive absolute score, the first fragment is assigned reversed
+			unassigned.remove(maxJ);
+			cut[maxJ] = (maxScore>=0);
+			updateHaplotype(hap, matrix, maxJ, cut[maxJ], scores, unassigned);
 		}
 	}
-	private void updateHaplotype(char[] hap, int start, Fragment f, boolean reverse) {
-		String calls = f.getExtendedCalls();
-		for(int i=0;i<calls.length();i++) {
-			int relPos = f.getFirstPos() + i - start;
-			if(hap[relPos]==Fragment.NODATACHAR && calls.charAt(i)!=Fragment.NODATACHAR) {
+	/**
+	 * Phases the SNPs called by fragment i that are not phased yet and updates the scores of the
+	 * unassigned fragments with calls at those SNPs
+	 */
+	private void updateHaplotype(char[] hap, CallMatrix matrix, int i, boolean reverse, int [] scores, IndexedMaxHeap unassigned) {
+		int [] rowOffsets = matrix.getRowOffsets();
+		int [] rowColumns = matrix.getRowColumns();
+		char [] rowAlleles = matrix.getRowAlleles();
+		int [] columnOffsets = matrix.getColumnOffsets();
+		int [] columnRows = matrix.getColumnRows();
+		char [] columnAlleles = matrix.getColumnAlleles();
+		int [] multiplicities = matrix.getMultiplicities();
+		for(int e=rowOffsets[i];e<rowOffsets[i+1];e++) {
+			int relPos = rowColumns[e];
+			if(hap[relPos]==Fragment.NODATACHAR) {
 				if(!reverse) {
-					hap[relPos] = calls.charAt(i);
-				} else if (calls.charAt(i) == Fragment.ALLELE1CHAR) {
+					hap[relPos] = rowAlleles[e];
+				} else if (rowAlleles[e] == Fragment.ALLELE1CHAR) {
 					hap[relPos] = Fragment.ALLELE2CHAR;
 				} else {
 					hap[relPos] = Fragment.ALLELE1CHAR;
 				}
-				
+				for(int c=columnOffsets[relPos];c<columnOffsets[relPos+1];c++) {
+					int j = columnRows[c];
+					if(unassigned.contains(j)) {
+						if(columnAlleles[c]!=hap[relPos]) {
+							scores[j]+=multiplicities[j];
+						} else {
+							scores[j]-=multiplicities[j];
+						}
+						unassigned.put(j, Math.abs(scores[j]));
+					}
+				}
 			}
 		}
-		
 	}
-	private void updateCut(Block b) {
-		List<Fragment> fragments = b.getFragments();
-		for(int i=0;i<fragments.size();i++) {
-			Fragment f = fragments.get(i);
-			int score = f.getHamming2(haplotype,b.getFirstPos());
+	private void updateCut(CutConsensus consensus) {
+		for(int i=0;i<cut.length;i++) {
+			int score = evaluator.getDistanceHap1(i)-evaluator.getDistanceHap2(i);
 			if(score != 0) {
-				cut[i] = score > 0;
+				consensus.setSide(i, score > 0);
 			}
-			
 		}
 	}
 
@@ -19,51 +19,96 @@
  *******************************************************************************/
 package mpg.molgen.sih.algorithms;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import mpg.molgen.sih.model.Block;
+import mpg.molgen.sih.model.CallMatrix;
 import mpg.molgen.sih.model.Fragment;
 
 public class FastHareAlgorithm implements SIHAlgorithm {
 
 	@Override
 	public void buildHaplotype(Block b) {
-		List<Fragment> allFragments = b.getFragments();
-		boolean cut [] = new boolean [allFragments.size()];
-		List<Fragment> f1= new ArrayList<Fragment>();
-		List<Fragment> f2= new ArrayList<Fragment>();
-		int start1=0;
-		int start2=0;
-		for(int i=0;i<allFragments.size();i++) {
-			Fragment f = allFragments.get(i);
-			if(f1.size()==0) {
-				f1.add(f);
+		CallMatrix matrix = b.getCallMatrix();
+		int [] rowOffsets = matrix.getRowOffsets();
+		int [] rowColumns = matrix.getRowColumns();
+		char [] rowAlleles = matrix.getRowAlleles();
+		int [] multiplicities = matrix.getMultiplicities();
+		boolean cut [] = new boolean [matrix.getNumRows()];
+		//Running consensus of the fragments assigned to each side
+		PartitionConsensus p1 = new PartitionConsensus(matrix.getNumColumns());
+		PartitionConsensus p2 = new PartitionConsensus(matrix.getNumColumns());
+		for(int i=0;i<cut.length;i++) {
+			int first = rowOffsets[i];
+			int last = rowOffsets[i+1];
+			if(p1.size()==0) {
 				cut[i]=false;
-				start1=f.getFirstPos();
 			} else {
-				//TODO: Do this more efficiently
-				String hap1 = CutHaplotypeTranslator.getHaplotype(new Block(f1), cut, CutHaplotypeTranslator.CONSENSUS_ALL);
-				int d1 = f.getHamming2(hap1, start1);
-				String hap2 = "";
-				int d2=0;
-				if(f2.size()>0) {
-					hap2 = CutHaplotypeTranslator.getHaplotype(new Block(f2), cut, CutHaplotypeTranslator.CONSENSUS_ALL);
-					d2 = f.getHamming2(hap2, start2);
-				}
-				if(d1<d2) {
-					f1.add(f);
-					cut[i] = false;
-				} else {
-					f2.add(f);
-					cut[i] = true;
-					if(f2.size()==1) {
-						start2 = f.getFirstPos();
-					}
+				int d1 = p1.getHamming2(rowColumns, rowAlleles, first, last);
+				int d2 = 0;
+				if(p2.size()>0) {
+					d2 = p2.getHamming2(rowColumns, rowAlleles, first, last);
 				}
+				cut[i] = (d1>=d2);
+			}
+			if(cut[i]) {
+				p2.add(rowColumns, rowAlleles, first, last, multiplicities[i]);
+			} else {
+				p1.add(rowColumns, rowAlleles, first, last, multiplicities[i]);
 			}
 		}
 		b.setHaplotype(CutHaplotypeTranslator.getHaplotype(b, cut, CutHaplotypeTranslator.CONSENSUS_COMBINED));
 	}
 	
-}
\ No newline at end of file
+}
+/**
+ * Allele votes per SNP of the fragments added to one side of the cut. The consensus is the same
+ * as CutHaplotypeTranslator.getHaplotype with CONSENSUS_ALL on the added fragments
+ */
+class PartitionConsensus {
+	private int [] votes;
+	private int [] votesAllele1;
+	private int size = 0;
+	
+	PartitionConsensus(int nColumns) {
+		votes = new int [nColumns];
+		votesAllele1 = new int [nColumns];
+	}
+	/**
+	 * @return Number of fragments added
+	 */
+	int size() {
+		return size;
+	}
+	/**
+	 * Adds the calls stored between the given offsets of a call matrix row view
+	 */
+	void add(int [] columns, char [] alleles, int first, int last, int multiplicity) {
+		for(int e=first;e<last;e++) {
+			int j = columns[e];
+			votes[j]+=multiplicity;
+			if(alleles[e]==Fragment.ALLELE1CHAR) {
+				votesAllele1[j]+=multiplicity;
+			}
+		}
+		size++;
+	}
+	/**
+	 * @return Difference between disagreements and agreements of the given calls with the consensus.
+	 * Same value as Fragment.getHamming2 with the consensus haplotype
+	 */
+	int getHamming2(int [] columns, char [] alleles, int first, int last) {
+		int answer = 0;
+		for(int e=first;e<last;e++) {
+			int j = columns[e];
+			int v1 = 2*votesAllele1[j];
+			if(v1 != votes[j]) {
+				boolean consensusAllele1 = v1 > votes[j];
+				if(consensusAllele1 == (alleles[e]==Fragment.ALLELE1CHAR)) {
+					answer--;
+				} else {
+					answer++;
+				}
+			}
+		}
+		return answer;
+	}
+}
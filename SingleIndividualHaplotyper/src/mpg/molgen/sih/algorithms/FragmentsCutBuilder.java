@@ -21,17 +21,22 @@ package mpg.molgen.sih.algorithms;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
-//import java.util.Random;
+import java.util.Random;
 
+import mpg.molgen.sih.model.DistanceCounts;
 import mpg.molgen.sih.model.Fragment;
+import mpg.molgen.sih.model.FragmentGraph;
 
 public class FragmentsCutBuilder {
-	private List<Vertex> graph;
-	private List<Edge> allEdges;
+	//Below this number of edges a comparison sort is faster than a radix sort
+	private static final int MIN_EDGES_RADIX_SORT = 1024;
+	private FragmentGraph graph;
+	//Indexes of the edges sorted by decreasing weight
+	private int [] sortedEdges;
 	private boolean [] cut;
+	private RestartsBudget budget = new RestartsBudget();
+	private int restartsUsed = 0;
 	/**
 	 * PRE: Fragments are sorted
 	 * @param fragments
@@ -44,59 +49,81 @@ public class FragmentsCutBuilder {
 	 * @param fragments
 	 */
 	public FragmentsCutBuilder(List<Fragment> fragments,boolean useQualityScores) {
-		
+		this(new FragmentGraph(fragments, useQualityScores?FragmentGraph.WEIGHT_QUALS:FragmentGraph.WEIGHT_HAMMING2));
+	}
+	public FragmentsCutBuilder(FragmentGraph graph) {
 		super();
-		graph = new ArrayList<Vertex>(fragments.size());
-		allEdges = new ArrayList<Edge>(2*fragments.size());
-		cut = new boolean [fragments.size()];
-		for(int i=0;i<fragments.size();i++) {
-			graph.add(new Vertex(i));
+		this.graph = graph;
+		cut = new boolean [graph.getNumVertices()];
+		sortedEdges = sortEdges(graph);
+	}
+	/**
+	 * @return Indexes of the edges sorted by decreasing weight. Edges with the same weight keep their order
+	 */
+	private static int [] sortEdges(FragmentGraph graph) {
+		int nEdges = graph.getNumEdges();
+		long minWeight = 0;
+		long maxWeight = 0;
+		for(int e=0;e<nEdges;e++) {
+			minWeight = Math.min(minWeight, graph.getEdgeWeight(e));
+			maxWeight = Math.max(maxWeight, graph.getEdgeWeight(e));
 		}
-		for(int i=0;i<fragments.size();i++) {
-			Fragment f1 = fragments.get(i);
-			for(int j=i+1;j<fragments.size();j++) {
-				Fragment f2 = fragments.get(j);
-				if(f1.getLastPos() < f2.getFirstPos()) {
-					break;
-				}
-				double score = getScore(f1,f2,useQualityScores);
-				if(score!=0) {
-					Edge e = new Edge(i, j, score);
-					graph.get(i).addEdge(e);
-					graph.get(j).addEdge(e);
-					allEdges.add(e);
-				}
+		if(nEdges < MIN_EDGES_RADIX_SORT || maxWeight - minWeight > Integer.MAX_VALUE) {
+			long [] keys = new long [nEdges];
+			for(int e=0;e<nEdges;e++) {
+				keys[e] = ((long)-graph.getEdgeWeight(e)<<32) + e;
+			}
+			Arrays.sort(keys);
+			int [] answer = new int [nEdges];
+			for(int e=0;e<nEdges;e++) {
+				answer[e] = (int)(keys[e] & 0xffffffffL);
+			}
+			return answer;
+		}
+		//Stable radix sort on the distance to the maximum weight. Only the bytes needed for the range of weights are sorted
+		int [] keys = new int [nEdges];
+		int [] answer = new int [nEdges];
+		int [] buffer = new int [nEdges];
+		for(int e=0;e<nEdges;e++) {
+			keys[e] = (int)(maxWeight - graph.getEdgeWeight(e));
+			answer[e] = e;
+		}
+		int [] counts = new int [257];
+		for(int shift=0;shift<32 && ((maxWeight-minWeight)>>>shift)>0;shift+=8) {
+			Arrays.fill(counts, 0);
+			for(int e=0;e<nEdges;e++) {
+				counts[((keys[e]>>>shift) & 0xff)+1]++;
+			}
+			for(int b=0;b<256;b++) {
+				counts[b+1]+=counts[b];
+			}
+			for(int i=0;i<nEdges;i++) {
+				int e = answer[i];
+				int b = (keys[e]>>>shift) & 0xff;
+				buffer[counts[b]] = e;
+				counts[b]++;
 			}
+			int [] tmp = answer;
+			answer = buffer;
+			buffer = tmp;
 		}
-		Collections.sort(allEdges, new EdgesComparator());
+		return answer;
 	}
 	public double [] calcAgreementScoreNodes() {
-		double [] answer = new double [graph.size()];
-		int i=0;
-		for(Vertex v:graph) {
-			for(Edge e: v.getEdges()) {
-				answer[i]+=Math.abs(e.getWeight());
+		int [] offsets = graph.getOffsets();
+		int [] weights = graph.getWeights();
+		double [] answer = new double [graph.getNumVertices()];
+		for(int v=0;v<answer.length;v++) {
+			for(int k=offsets[v];k<offsets[v+1];k++) {
+				answer[v]+=Math.abs(weights[k]);
 			}
-			i++;
 		}
 		return answer;
 	}
 	public double getScore(Fragment f1, Fragment f2, boolean useQualityScores) {
-		if(!useQualityScores) {
-			int score = f1.getHamming2(f2);
-			return score;
-			/*int overlap = f1.getOverlappingCount(f2);
-			int disagree = f1.getHammingDistance(f2);
-			int agree = overlap - disagree;
-			return disagree*disagree - agree*agree;
-			double score2 = Math.pow(score, 2);
-			if(score >= 0)
-				return (int) Math.round(score2);
-			else {
-				return (int) -Math.round(score2);
-			}*/
-		}
-		else return f1.getDistanceWithQuals(f2);
+		DistanceCounts counts = new DistanceCounts(useQualityScores);
+		f1.compare(f2, counts);
+		return FragmentGraph.getWeight(counts, useQualityScores?FragmentGraph.WEIGHT_QUALS:FragmentGraph.WEIGHT_HAMMING2);
 	}
 	/**
 	 * @return the cut
@@ -104,250 +131,136 @@ public class FragmentsCutBuilder {
 	public boolean[] getCut() {
 		return cut;
 	}
+	/**
+	 * @return the graph
+	 */
+	public FragmentGraph getGraph() {
+		return graph;
+	}
+	
+	/**
+	 * @param budget Limits on the number of restarts run by calculateMaxCut
+	 */
+	public void setRestartsBudget(RestartsBudget budget) {
+		this.budget = budget;
+	}
+	/**
+	 * @return Number of restarts run by the last call to calculateMaxCut
+	 */
+	public int getRestartsUsed() {
+		return restartsUsed;
+	}
 	
 	public void calculateMaxCut() {
 		//randomizeCut();
-		boolean [] bestCut = new boolean [cut.length];
-		double maxScore = 0;
 		//double iters = allEdges.size()+1;
-		double iters = Math.sqrt(allEdges.size())+1;
-		for(int i=0;i<allEdges.size() && i<iters;i++) {
-			Edge e=allEdges.get(i);
-			if(e.getWeight()>0) {
-				//System.out.println("Starting with edge: "+e.getPos1() +" - "+e.getPos2());
-				initCut(e);
-				boolean improvement = true;
-				while(improvement) {
-					heuristic1();
-					improvement = heuristic2();
-				}
-				
-				double score = calculateScore (cut);
-				//System.out.println("Cut score: "+score);
-				if(maxScore < score) {
-					maxScore = score;
-					copy(bestCut,cut);
-				}
-			}
-			
-		}
-		copy(cut,bestCut);
-	}
-	private double calculateScore(boolean[] cut) {
-		double answer = 0;
-		for(Edge e:allEdges) {
-			if(cut[e.getPos1()]!=cut[e.getPos2()]) {
-				answer+=e.getWeight();
+		double iters = Math.sqrt(sortedEdges.length)+1;
+		int [] seeds = new int [sortedEdges.length];
+		int nSeeds = 0;
+		for(int i=0;i<sortedEdges.length && i<iters;i++) {
+			int e=sortedEdges[i];
+			if(graph.getEdgeWeight(e)>0) {
+				seeds[nSeeds] = e;
+				nSeeds++;
 			}
 		}
-		return answer;
-	}
-
-	private void copy(boolean[] cutDest, boolean[] cutSource) {
-		for(int i=0;i<cutDest.length;i++) {
-			cutDest[i] = cutSource[i];
-		}
-	}
-
-	/*private void randomizeCut() {
-		Random r = new Random();
-		for(int i=0;i<cut.length;i++) {
-			cut[i] = r.nextBoolean();
-			assigned[i]=true;
+		Arrays.fill(cut, false);
+		restartsUsed = 0;
+		if(nSeeds == 0) {
+			return;
 		}
-	}*/
-	private void initCut(Edge e) {
-		boolean [] assigned = new boolean[graph.size()];
-		Arrays.fill(assigned, false);
-		assigned[e.getPos1()] = true;
-		cut[e.getPos1()] = false;
-		assigned[e.getPos2()] = true;
-		cut[e.getPos2()] = true;
-		int nAssigned = 2;
-		while(nAssigned<cut.length) {
-			Vertex vMax = null;
-			double max = 0;
-			boolean group = false;
-			for(Vertex v:graph) {
-				if(!assigned[v.getPos()]) {
-					double diff = getAssignmentDiff(v,assigned);
-					double absDiff = Math.abs(diff);
-					if(vMax == null || absDiff>max) {
-						max = absDiff;
-						vMax = v;
-						group = diff<0;
-					}
-				}
+		//Restarts are deterministic, so the seed of the engine is not used
+		MultiStartEngine<boolean []> engine = new MultiStartEngine<boolean []>(0);
+		engine.setRestartsBudget(budget);
+		//No cut can be heavier than the sum of the positive weights, so restarts stop when a cut includes every positive edge
+		long totalPositiveWeight = 0;
+		for(int e=0;e<graph.getNumEdges();e++) {
+			if(graph.getEdgeWeight(e)>0) {
+				totalPositiveWeight+=graph.getEdgeWeight(e);
 			}
-			assigned[vMax.getPos()] = true;
-			cut[vMax.getPos()] = group;
-			nAssigned++;
 		}
-	}
-	private double getAssignmentDiff(Vertex v, boolean [] assigned) {
-		int pos1 = v.getPos(); 
-		List<Edge> edges = v.getEdges();
-		double answer = 0;
-		for(Edge e:edges) {
-			int pos2 = e.getPos1();
-			if(pos1 == pos2) {
-				pos2 = e.getPos2();
-			}
-			if(assigned[pos2]){
-				if(cut[pos2]) {
-					answer += e.getWeight();
-				} else {
-					answer -= e.getWeight();
-				}
-			}
+		engine.setLowerBound(-totalPositiveWeight);
+		int nWorkers = Math.min(engine.getParallelism(), nSeeds);
+		List<CutWorker> workers = new ArrayList<CutWorker>(nWorkers);
+		for(int i=0;i<nWorkers;i++) {
+			workers.add(new CutWorker(graph, sortedEdges, seeds));
 		}
-		return answer;
-	}
-
-	private void heuristic1() {
-		Vertex maxVertex ;
-		do {
-			maxVertex = null;
-			double improvement = 0;
-			for(Vertex v:graph) {
-				double diff = getFlipDifference(v, cut);
-				if(diff > improvement) {
-					maxVertex = v;
-					improvement = diff;
-				}
-			}
-			if(maxVertex!=null) {
-				flipVertex(maxVertex.getPos());
-			}
-		} while (maxVertex !=null);
-	}
-	private boolean heuristic2() {
-		boolean totalImp = false;
-		Edge maxEdge;
-		do {
-			maxEdge = null;
-			 
-			double improvement = 0;
-			for(Edge e:allEdges) {
-				int pos1 = e.getPos1();
-				int pos2 = e.getPos2();
-				
-				Vertex v1 = graph.get(pos1);
-				Vertex v2 = graph.get(pos2);
-				double diff1 = getFlipDifference(v1, cut);
-				double diff2 = getFlipDifference(v2, cut);
-				boolean same = cut[pos1]==cut[pos2];
-				if(same) {
-					diff1-=e.getWeight();
-					diff2-=e.getWeight();
-				} else {
-					diff1+=e.getWeight();
-					diff2+=e.getWeight();
-				}
-				if(diff1 + diff2 > improvement) {
-					maxEdge = e;
-					improvement = diff1+diff2;
-				}
-			}
-			if(maxEdge!=null) {
-				flipVertex(maxEdge.getPos1());
-				flipVertex(maxEdge.getPos2());
-				totalImp = true;
-			}
-		} while (maxEdge !=null);
-		return totalImp;
-	}
-	private void flipVertex(int pos) {
-		cut[pos] = !cut[pos];
-	}
-	private double getFlipDifference (Vertex v, boolean [] cut) {
-		int pos1 = v.getPos();
-		boolean g1 = cut[pos1]; 
-		List<Edge> edges = v.getEdges();
-		double answer = 0;
-		for(Edge e:edges) {
-			int pos2 = e.getPos1();
-			if(pos1 == pos2) {
-				pos2 = e.getPos2();
-			}
-			boolean g2 = cut[pos2];
-			if(g1 == g2) {
-				answer += e.getWeight();
-			} else {
-				answer -= e.getWeight();
-			}
+		boolean [] bestCut = engine.run(workers, nSeeds);
+		restartsUsed = engine.getRestartsUsed();
+		//Scores are negated cut weights. Only cuts with positive weight are accepted
+		if(bestCut!=null && engine.getBestScore()<0) {
+			System.arraycopy(bestCut, 0, cut, 0, cut.length);
 		}
-		return answer;
 	}
 	
 }
-class Vertex {
-	private int pos;
-	private List<Edge> edges = new ArrayList<Edge>();
-	public Vertex(int pos) {
-		super();
-		this.pos = pos;
-	}
+/**
+ * Builds a cut from the seed edge of each restart and optimizes it with a local search.
+ * The score of a cut is its negated weight, so the engine keeps the heaviest cut
+ */
+class CutWorker implements RestartWorker<boolean []> {
+	private FragmentGraph graph;
+	private int [] seeds;
+	private boolean [] cut;
+	private CutLocalSearch localSearch;
+	//Buffers for the greedy construction of initial cuts
+	private long [] assignmentDiffs;
+	private boolean [] assigned;
+	private IndexedMaxHeap assignmentHeap;
 	
-	/**
-	 * @return the pos
-	 */
-	public int getPos() {
-		return pos;
-	}
-
-	/**
-	 * @return the edges
-	 */
-	public List<Edge> getEdges() {
-		return edges;
-	}
-
-	public void addEdge (Edge e) {
-		edges.add(e);
-	}
-}
-class Edge {
-	private int pos1;
-	private int pos2;
-	private double weight;
-	public Edge(int pos1, int pos2, double weight) {
-		super();
-		this.pos1 = pos1;
-		this.pos2 = pos2;
-		this.weight = weight;
+	public CutWorker(FragmentGraph graph, int [] sortedEdges, int [] seeds) {
+		this.graph = graph;
+		this.seeds = seeds;
+		int n = graph.getNumVertices();
+		cut = new boolean [n];
+		assignmentDiffs = new long [n];
+		assigned = new boolean [n];
+		assignmentHeap = new IndexedMaxHeap(n);
+		localSearch = new CutLocalSearch(graph, sortedEdges);
 	}
-	/**
-	 * @return the weight
-	 */
-	public double getWeight() {
-		return weight;
+	@Override
+	public long run(int restart, Random random) {
+		initCut(seeds[restart]);
+		return -localSearch.optimize(cut);
 	}
-	/**
-	 * @param weight the weight to set
-	 */
-	public void setWeight(double weight) {
-		this.weight = weight;
+	@Override
+	public boolean [] getSolution() {
+		return Arrays.copyOf(cut, cut.length);
 	}
 	/**
-	 * @return the pos1
+	 * Builds a cut starting from the given edge assigning greedily the vertex with
+	 * the largest absolute difference between its edges to both groups
 	 */
-	public int getPos1() {
-		return pos1;
+	private void initCut(int e) {
+		Arrays.fill(assignmentDiffs, 0);
+		Arrays.fill(assigned, false);
+		//All vertices start with difference zero
+		assignmentHeap.fill(assignmentDiffs, cut.length);
+		assignVertex(graph.getEdgeVertex1(e), false);
+		assignVertex(graph.getEdgeVertex2(e), true);
+		while(!assignmentHeap.isEmpty()) {
+			//Ties are broken by the smallest index
+			int vMax = assignmentHeap.peek();
+			assignVertex(vMax, assignmentDiffs[vMax]<0);
+		}
 	}
-	/**
-	 * @return the pos2
-	 */
-	public int getPos2() {
-		return pos2;
+	private void assignVertex(int v, boolean group) {
+		int [] offsets = graph.getOffsets();
+		int [] neighbors = graph.getNeighbors();
+		int [] weights = graph.getWeights();
+		assigned[v] = true;
+		cut[v] = group;
+		assignmentHeap.remove(v);
+		for(int k=offsets[v];k<offsets[v+1];k++) {
+			int v2 = neighbors[k];
+			if(!assigned[v2]){
+				if(group) {
+					assignmentDiffs[v2] += weights[k];
+				} else {
+					assignmentDiffs[v2] -= weights[k];
+				}
+				assignmentHeap.put(v2, Math.abs(assignmentDiffs[v2]));
+			}
+		}
 	}
-	
 }
-class EdgesComparator implements Comparator<Edge> {
-
-	@Override
-	public int compare(Edge e1, Edge e2) {
-		return (int)(e2.getWeight() -e1.getWeight());
-	}
-	
-}
\ No newline at end of file
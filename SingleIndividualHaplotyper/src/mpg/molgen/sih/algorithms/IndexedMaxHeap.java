@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * SingleIndividualHaplotyper - Efficient heuristic algorithms for the SIH problem
+ * Copyright 2011 Jorge Duitama
+ *
+ * This file is part of SingleIndividualHaplotyper.
+ *
+ *     SingleIndividualHaplotyper is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     SingleIndividualHaplotyper is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with SingleIndividualHaplotyper.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package mpg.molgen.sih.algorithms;
+
+import java.util.Arrays;
+
+/**
+ * Binary max-heap of the items 0 to n-1 with keys that can be updated.
+ * Items with the same key are sorted by increasing index, so the item on top
+ * is the same item that a linear scan keeping the first maximum would select
+ */
+public class IndexedMaxHeap {
+	private long [] keys;
+	private int [] heap;
+	//Position of each item in the heap or -1 if the item is not in the heap
+	private int [] positions;
+	private int size = 0;
+	
+	public IndexedMaxHeap(int capacity) {
+		keys = new long [capacity];
+		heap = new int [capacity];
+		positions = new int [capacity];
+		Arrays.fill(positions, -1);
+	}
+	/**
+	 * Replaces the content of the heap with the items 0 to n-1 in linear time
+	 * @param initialKeys Keys of the items
+	 * @param n Number of items
+	 */
+	public void fill(long [] initialKeys, int n) {
+		clear();
+		for(int i=0;i<n;i++) {
+			keys[i] = initialKeys[i];
+			heap[i] = i;
+			positions[i] = i;
+		}
+		size = n;
+		for(int i=size/2-1;i>=0;i--) {
+			siftDown(i);
+		}
+	}
+	public void clear() {
+		for(int i=0;i<size;i++) {
+			positions[heap[i]] = -1;
+		}
+		size = 0;
+	}
+	public int size() {
+		return size;
+	}
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	public boolean contains(int item) {
+		return positions[item]>=0;
+	}
+	public long getKey(int item) {
+		return keys[item];
+	}
+	/**
+	 * Inserts the given item or updates its key if it is already in the heap
+	 */
+	public void put(int item, long key) {
+		int pos = positions[item];
+		if(pos<0) {
+			keys[item] = key;
+			heap[size] = item;
+			positions[item] = size;
+			size++;
+			siftUp(size-1);
+		} else {
+			long old = keys[item];
+			keys[item] = key;
+			if(key > old) {
+				siftUp(pos);
+			} else if (key < old) {
+				siftDown(pos);
+			}
+		}
+	}
+	/**
+	 * @return Item with the largest key without removing it from the heap
+	 */
+	public int peek() {
+		return heap[0];
+	}
+	/**
+	 * @return Item with the largest key. The item is removed from the heap
+	 */
+	public int poll() {
+		int item = heap[0];
+		remove(item);
+		return item;
+	}
+	public void remove(int item) {
+		int pos = positions[item];
+		if(pos<0) {
+			return;
+		}
+		size--;
+		positions[item] = -1;
+		if(pos < size) {
+			int last = heap[size];
+			heap[pos] = last;
+			positions[last] = pos;
+			siftUp(pos);
+			siftDown(positions[last]);
+		}
+	}
+	private boolean isAbove(int item1, int item2) {
+		return keys[item1] > keys[item2] || (keys[item1] == keys[item2] && item1 < item2);
+	}
+	private void siftUp(int pos) {
+		int item = heap[pos];
+		while(pos>0) {
+			int parentPos = (pos-1)/2;
+			int parent = heap[parentPos];
+			if(!isAbove(item, parent)) {
+				break;
+			}
+			heap[pos] = parent;
+			positions[parent] = pos;
+			pos = parentPos;
+		}
+		heap[pos] = item;
+		positions[item] = pos;
+	}
+	private void siftDown(int pos) {
+		int item = heap[pos];
+		while(true) {
+			int child = 2*pos+1;
+			if(child >= size) {
+				break;
+			}
+			if(child+1 < size && isAbove(heap[child+1], heap[child])) {
+				child++;
+			}
+			if(!isAbove(heap[child], item)) {
+				break;
+			}
+			heap[pos] = heap[child];
+			positions[heap[pos]] = pos;
+			pos = child;
+		}
+		heap[pos] = item;
+		positions[item] = pos;
+	}
+}
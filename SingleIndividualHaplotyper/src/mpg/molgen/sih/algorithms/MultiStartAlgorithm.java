@@ -0,0 +1,27 @@
+/*******************************************************************************
+ * SingleIndividualHaplotyper - Efficient heuristic algorithms for the SIH problem
+ * Copyright 2011 Jorge Duitama
+ *
+ * This file is part of SingleIndividualHaplotyper.
+ *
+ *     SingleIndividualHaplotyper is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     SingleIndividualHaplotyper is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with SingleIndividualHaplotyper.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package mpg.molgen.sih.algorithms;
+
+/**
+ * Algorithm running several restarts on each block whose number can be limited
+ */
+public interface MultiStartAlgorithm extends SIHAlgorithm {
+	public void setRestartsBudget(RestartsBudget budget);
+}
@@ -0,0 +1,263 @@
+/*******************************************************************************
+ * SingleIndividualHaplotyper - Efficient heuristic algorithms for the SIH problem
+ * Copyright 2011 Jorge Duitama
+ *
+ * This file is part of SingleIndividualHaplotyper.
+ *
+ *     SingleIndividualHaplotyper is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     SingleIndividualHaplotyper is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with SingleIndividualHaplotyper.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package mpg.molgen.sih.algorithms;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs the restarts of a randomized algorithm and keeps the solution with the lowest score.
+ * Each restart gets a random numbers generator seeded from the seed of the engine and the index
+ * of the restart, and the stop rules are evaluated in restart order, so the best solution does not depend
+ * on the number of threads unless a time limit is set in the budget. Ties are resolved in favor of the first restart.
+ * Restarts are forked in the current ForkJoinPool if the engine is used within a pool, otherwise they run sequentially
+ */
+public class MultiStartEngine<T> {
+	//Odd constant used to spread the seeds of consecutive restarts
+	private static final long SEED_INCREMENT = 0x9E3779B97F4A7C15L;
+	private long seed;
+	private RestartsBudget budget = new RestartsBudget();
+	//No solution can have a score lower than this value
+	private long lowerBound = Long.MIN_VALUE;
+	private int restartsUsed = 0;
+	private long bestScore = 0;
+	
+	/**
+	 * @param seed Seed for the random numbers generators of the restarts
+	 */
+	public MultiStartEngine(long seed) {
+		this.seed = seed;
+	}
+	/**
+	 * @param budget Limits on the number of restarts
+	 */
+	public void setRestartsBudget(RestartsBudget budget) {
+		this.budget = budget;
+	}
+	/**
+	 * @param lowerBound Lowest possible score. Restarts stop when a solution reaches this score.
+	 * By default no score is known to be optimal
+	 */
+	public void setLowerBound(long lowerBound) {
+		this.lowerBound = lowerBound;
+	}
+	/**
+	 * @return Number of workers that can run restarts concurrently. Restarts run sequentially
+	 * if the engine is not used within a ForkJoinPool
+	 */
+	public int getParallelism() {
+		if(ForkJoinTask.inForkJoinPool()) {
+			return ForkJoinTask.getPool().getParallelism();
+		}
+		return 1;
+	}
+	/**
+	 * @return Number of restarts run by the last call to run up to the restart where the stop rule fired.
+	 * Restarts run concurrently after that restart are discarded and not counted
+	 */
+	public int getRestartsUsed() {
+		return restartsUsed;
+	}
+	/**
+	 * @return Score of the solution returned by the last call to run
+	 */
+	public long getBestScore() {
+		return bestScore;
+	}
+	/**
+	 * Runs restarts with the given workers until the restarts or the budget are exhausted
+	 * @param workers Workers running restarts. At most getParallelism() workers are used
+	 * @param restarts Number of restarts to run if the budget allows it
+	 * @return Solution with the lowest score or null if no restart was run
+	 */
+	public T run(List<? extends RestartWorker<T>> workers, int restarts) {
+		restarts = budget.limitRestarts(restarts);
+		EngineRestarts<T> state = new EngineRestarts<T>(seed, restarts, lowerBound, budget);
+		int nTasks = Math.max(1, Math.min(Math.min(workers.size(), getParallelism()), restarts));
+		if(nTasks == 1) {
+			new EngineRestartsTask<T>(state, workers.get(0)).compute();
+		} else {
+			List<EngineRestartsTask<T>> tasks = new ArrayList<EngineRestartsTask<T>>(nTasks);
+			for(int i=0;i<nTasks;i++) {
+				tasks.add(new EngineRestartsTask<T>(state, workers.get(i)));
+			}
+			ForkJoinTask.invokeAll(tasks);
+		}
+		restartsUsed = state.getRestartsUsed();
+		EngineResult<T> best = state.getBest();
+		bestScore = best.score;
+		return best.solution;
+	}
+	/**
+	 * @return Random numbers generator for the given restart
+	 */
+	static Random getRandom(long seed, int restart) {
+		return new Random(seed + SEED_INCREMENT*(restart+1));
+	}
+}
+/**
+ * Restarts shared by the tasks of an engine run. Scores are recorded by restart index and the stop rules
+ * are evaluated over the prefix of consecutive finished restarts, so they fire at the same restart as in
+ * a sequential run. Restarts after the stop point can run concurrently but their results are discarded
+ */
+class EngineRestarts<T> {
+	private long seed;
+	private int restarts;
+	private long lowerBound;
+	private RestartsBudget budget;
+	private long deadline;
+	private int nextRestart = 0;
+	//First restart that is not part of the run
+	private int stop;
+	private long [] scores;
+	private boolean [] finished;
+	//Restarts 0 to prefix-1 are finished. prefixBest is the best restart among them or -1 if prefix is zero
+	private int prefix = 0;
+	private int prefixBest = -1;
+	//Solutions of the finished restarts that are better than every finished restart with a lower index
+	private Map<Integer,T> candidates = new HashMap<Integer,T>();
+	
+	public EngineRestarts(long seed, int restarts, long lowerBound, RestartsBudget budget) {
+		this.seed = seed;
+		this.restarts = restarts;
+		this.lowerBound = lowerBound;
+		this.budget = budget;
+		this.deadline = budget.getDeadline(System.nanoTime());
+		stop = restarts;
+		scores = new long [restarts];
+		finished = new boolean [restarts];
+	}
+	/**
+	 * @return Index of the next restart to run or -1 if the restarts of the run are exhausted
+	 */
+	public synchronized int nextRestart() {
+		int restart = nextRestart;
+		if(restart >= stop) {
+			return -1;
+		}
+		if(restart > 0 && System.nanoTime() > deadline) {
+			//Restarts already started are still part of the run
+			stop = restart;
+			return -1;
+		}
+		nextRestart++;
+		return restart;
+	}
+	public Random getRandom(int restart) {
+		return MultiStartEngine.getRandom(seed, restart);
+	}
+	/**
+	 * Records the score of the given restart and keeps the solution of the worker if it can be the best solution of the run
+	 */
+	public synchronized void offer(long score, int restart, RestartWorker<T> worker) {
+		if(restart >= stop) {
+			return;
+		}
+		scores[restart] = score;
+		finished[restart] = true;
+		boolean candidate = true;
+		for(int i=0;i<restart && candidate;i++) {
+			if(finished[i] && scores[i] <= score) {
+				candidate = false;
+			}
+		}
+		if(candidate) {
+			Iterator<Integer> it = candidates.keySet().iterator();
+			while(it.hasNext()) {
+				int i = it.next();
+				if(i > restart && scores[i] >= score) {
+					it.remove();
+				}
+			}
+			candidates.put(restart, worker.getSolution());
+		}
+		advancePrefix();
+	}
+	/**
+	 * Extends the prefix of finished restarts applying the lower bound and the patience in index order
+	 */
+	private void advancePrefix() {
+		while(prefix < stop && finished[prefix]) {
+			if(prefixBest < 0 || scores[prefix] < scores[prefixBest]) {
+				prefixBest = prefix;
+			}
+			prefix++;
+			if(scores[prefixBest] <= lowerBound) {
+				//Later restarts can at most tie with the best solution
+				stop = Math.min(stop, prefixBest+1);
+			} else if(budget.isExhausted(prefix, prefixBest)) {
+				stop = Math.min(stop, prefix);
+			}
+		}
+	}
+	/**
+	 * @return Best result among the restarts of the run. PRE: All the tasks finished
+	 */
+	public synchronized EngineResult<T> getBest() {
+		if(prefixBest < 0) {
+			return new EngineResult<T>(Long.MAX_VALUE, -1, null);
+		}
+		return new EngineResult<T>(scores[prefixBest], prefixBest, candidates.get(prefixBest));
+	}
+	/**
+	 * @return Number of restarts of the run. PRE: All the tasks finished
+	 */
+	public synchronized int getRestartsUsed() {
+		return stop;
+	}
+}
+class EngineResult<T> {
+	final long score;
+	final int restart;
+	final T solution;
+	public EngineResult(long score, int restart, T solution) {
+		this.score = score;
+		this.restart = restart;
+		this.solution = solution;
+	}
+}
+/**
+ * Runs restarts with one worker until none is left
+ */
+class EngineRestartsTask<T> extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+	private EngineRestarts<T> restarts;
+	private RestartWorker<T> worker;
+	
+	public EngineRestartsTask(EngineRestarts<T> restarts, RestartWorker<T> worker) {
+		this.restarts = restarts;
+		this.worker = worker;
+	}
+	@Override
+	protected void compute() {
+		int restart = restarts.nextRestart();
+		while(restart>=0) {
+			long score = worker.run(restart, restarts.getRandom(restart));
+			restarts.offer(score, restart, worker);
+			restart = restarts.nextRestart();
+		}
+	}
+}
@@ -21,13 +21,20 @@ package mpg.molgen.sih.algorithms;
 
 import mpg.molgen.sih.model.Block;
 
-public class RefhapAlgorithm implements SIHAlgorithm {
+public class RefhapAlgorithm implements MultiStartAlgorithm {
 	private boolean [] cut;
 	private String haplotype="";
+	private RestartsBudget budget = new RestartsBudget();
+	@Override
+	public void setRestartsBudget(RestartsBudget budget) {
+		this.budget = budget;
+	}
 	@Override
 	public void buildHaplotype(Block b) {
 		FragmentsCutBuilder builder = new FragmentsCutBuilder(b.getFragments());
+		builder.setRestartsBudget(budget);
 		builder.calculateMaxCut();
+		b.setRestarts(builder.getRestartsUsed());
 		cut = builder.getCut();
 		haplotype=CutHaplotypeTranslator.getHaplotype(b, cut, CutHaplotypeTranslator.CONSENSUS_COMBINED);
 		b.setHaplotype(haplotype);
@@ -0,0 +1,40 @@
+/*******************************************************************************
+ * SingleIndividualHaplotyper - Efficient heuristic algorithms for the SIH problem
+ * Copyright 2011 Jorge Duitama
+ *
+ * This file is part of SingleIndividualHaplotyper.
+ *
+ *     SingleIndividualHaplotyper is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     SingleIndividualHaplotyper is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with SingleIndividualHaplotyper.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package mpg.molgen.sih.algorithms;
+
+import java.util.Random;
+
+/**
+ * Runs restarts of a randomized algorithm for MultiStartEngine. Each worker keeps its own buffers,
+ * so restarts of different workers can run concurrently
+ */
+public interface RestartWorker<T> {
+	/**
+	 * Runs one restart
+	 * @param restart Index of the restart
+	 * @param random Random numbers generator for the restart. It depends only on the seed of the engine and the index of the restart
+	 * @return Score of the solution found by the restart. Lower scores are better
+	 */
+	public long run(int restart, Random random);
+	/**
+	 * @return Copy of the solution found by the last restart
+	 */
+	public T getSolution();
+}
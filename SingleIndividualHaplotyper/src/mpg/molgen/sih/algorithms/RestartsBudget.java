@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * SingleIndividualHaplotyper - Efficient heuristic algorithms for the SIH problem
+ * Copyright 2011 Jorge Duitama
+ *
+ * This file is part of SingleIndividualHaplotyper.
+ *
+ *     SingleIndividualHaplotyper is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     SingleIndividualHaplotyper is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with SingleIndividualHaplotyper.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package mpg.molgen.sih.algorithms;
+
+/**
+ * Limits for algorithms running several restarts on each block. A value of zero means no limit.
+ * When a limit is reached the best solution found so far is kept
+ */
+public class RestartsBudget {
+	//Maximum number of restarts per block
+	private int maxRestarts = 0;
+	//Maximum time in milliseconds spent on the restarts of each block. At least one restart is always run
+	private long maxTimeMillis = 0;
+	//Number of consecutive restarts without improvement after which no more restarts are run
+	private int patience = 0;
+	
+	public RestartsBudget() {
+		super();
+	}
+	public RestartsBudget(int maxRestarts, long maxTimeMillis, int patience) {
+		super();
+		this.maxRestarts = maxRestarts;
+		this.maxTimeMillis = maxTimeMillis;
+		this.patience = patience;
+	}
+	/**
+	 * @return the maxRestarts
+	 */
+	public int getMaxRestarts() {
+		return maxRestarts;
+	}
+	/**
+	 * @param maxRestarts the maxRestarts to set
+	 */
+	public void setMaxRestarts(int maxRestarts) {
+		this.maxRestarts = maxRestarts;
+	}
+	/**
+	 * @return the maxTimeMillis
+	 */
+	public long getMaxTimeMillis() {
+		return maxTimeMillis;
+	}
+	/**
+	 * @param maxTimeMillis the maxTimeMillis to set
+	 */
+	public void setMaxTimeMillis(long maxTimeMillis) {
+		this.maxTimeMillis = maxTimeMillis;
+	}
+	/**
+	 * @return the patience
+	 */
+	public int getPatience() {
+		return patience;
+	}
+	/**
+	 * @param patience the patience to set
+	 */
+	public void setPatience(int patience) {
+		this.patience = patience;
+	}
+	/**
+	 * @return Number of restarts to run given the number of restarts available
+	 */
+	public int limitRestarts(int restarts) {
+		if(maxRestarts > 0 && maxRestarts < restarts) {
+			return maxRestarts;
+		}
+		return restarts;
+	}
+	/**
+	 * @return Time in nanoseconds after which no more restarts should be started or Long.MAX_VALUE if there is no time limit
+	 */
+	public long getDeadline(long startNanos) {
+		if(maxTimeMillis > 0) {
+			return startNanos + maxTimeMillis*1000000L;
+		}
+		return Long.MAX_VALUE;
+	}
+	/**
+	 * @param restart Index of the next restart
+	 * @param bestRestart Index of the restart producing the best solution so far or -1 if there is no solution
+	 * @return true if too many restarts have been run without improvement
+	 */
+	public boolean isExhausted(int restart, int bestRestart) {
+		return patience > 0 && restart - bestRestart > patience;
+	}
+}
@@ -19,36 +19,81 @@
  *******************************************************************************/
 package mpg.molgen.sih.algorithms;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
 import mpg.molgen.sih.model.Block;
+import mpg.molgen.sih.model.CallMatrix;
 import mpg.molgen.sih.model.Fragment;
+import mpg.molgen.sih.model.FragmentGraph;
 
-public class SHRThreeAlgorithm implements SIHAlgorithm {
-
-	private Random random = new Random();
+public class SHRThreeAlgorithm implements MultiStartAlgorithm, RandomizedAlgorithm {
+	private int restarts = 10;
+	private long seed = 0;
+	private RestartsBudget budget = new RestartsBudget();
+	@Override
+	public void setRestartsBudget(RestartsBudget budget) {
+		this.budget = budget;
+	}
+	/**
+	 * @param restarts Number of random pairs of seed fragments tried for each block. At least one
+	 */
+	public void setRestarts(int restarts) {
+		this.restarts = Math.max(1, restarts);
+	}
+	/**
+	 * @param seed Seed for the random choice of seed fragments
+	 */
+	@Override
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
 	@Override
 	public void buildHaplotype(Block b) {
-		int minMEC = -1;
-		boolean [] minCut = null;
-		for(int iter=0;iter < 10;iter++) {
-			boolean [] cut = generateCut(b);
-			int mec1 = calculateMec(b,cut,false);
-			int mec2 = calculateMec(b,cut,true);
-			int mec = Math.max(mec1, mec2);
-			if(minMEC == -1 || mec < minMEC) {
-				minMEC = mec;
-				minCut = cut;
-			}
+		FragmentGraph graph = new FragmentGraph(b.getFragments(), FragmentGraph.WEIGHT_DISAGREE);
+		MultiStartEngine<boolean []> engine = new MultiStartEngine<boolean []>(seed);
+		engine.setRestartsBudget(budget);
+		//Internal weights are not negative, so a cut without internal disagreements can not be improved
+		engine.setLowerBound(0);
+		int nWorkers = Math.min(engine.getParallelism(), restarts);
+		List<SHRThreeWorker> workers = new ArrayList<SHRThreeWorker>(nWorkers);
+		for(int i=0;i<nWorkers;i++) {
+			workers.add(new SHRThreeWorker(b, graph));
 		}
+		boolean [] minCut = engine.run(workers, restarts);
+		b.setRestarts(engine.getRestartsUsed());
 		b.setHaplotype(CutHaplotypeTranslator.getHaplotype(b, minCut, CutHaplotypeTranslator.CONSENSUS_GROUP_1));
 	}
-	private boolean[] generateCut(Block b) {
-		
-		List<Fragment> fragments = b.getFragments();
-		boolean [] cut = new boolean [fragments.size()];
-		if(fragments.size()==1) {
+}
+/**
+ * Builds cuts from two random seed fragments assigning each fragment to the closest seed.
+ * The score of a cut is the larger internal weight of both sides
+ */
+class SHRThreeWorker implements RestartWorker<boolean []> {
+	private CallMatrix matrix;
+	private FragmentGraph graph;
+	private boolean [] cut;
+	
+	public SHRThreeWorker(Block b, FragmentGraph graph) {
+		this.matrix = b.getCallMatrix();
+		this.graph = graph;
+	}
+	@Override
+	public long run(int restart, Random random) {
+		cut = generateCut(random);
+		int mec1 = calculateMec(cut,false);
+		int mec2 = calculateMec(cut,true);
+		return Math.max(mec1, mec2);
+	}
+	@Override
+	public boolean [] getSolution() {
+		return Arrays.copyOf(cut, cut.length);
+	}
+	private boolean[] generateCut(Random random) {
+		boolean [] cut = new boolean [matrix.getNumRows()];
+		if(cut.length==1) {
 			return cut;
 		}
 		int index1 = random.nextInt(cut.length);
@@ -56,15 +101,28 @@ public class SHRThreeAlgorithm implements SIHAlgorithm {
 		while(index2==index1) {
 			index2 = random.nextInt(cut.length);
 		}
-		Fragment f1 = fragments.get(index1);
-		Fragment f2 = fragments.get(index2);
 		cut[index1] = false;
 		cut[index2] = true;
-		for(int i=0;i<fragments.size();i++) {
-			Fragment f = fragments.get(i);
+		//Distances to both seeds are counted in one pass over the calls of each fragment
+		int [] rowOffsets = matrix.getRowOffsets();
+		int [] rowColumns = matrix.getRowColumns();
+		char [] rowAlleles = matrix.getRowAlleles();
+		char [] seed1 = getCalls(index1);
+		char [] seed2 = getCalls(index2);
+		for(int i=0;i<cut.length;i++) {
 			if(i!=index1 && i!= index2) {
-				int d1 = f.getHammingDistance(f1);
-				int d2 = f.getHammingDistance(f2);
+				int d1 = 0;
+				int d2 = 0;
+				for(int e=rowOffsets[i];e<rowOffsets[i+1];e++) {
+					int j = rowColumns[e];
+					char call = rowAlleles[e];
+					if(seed1[j]!=Fragment.NODATACHAR && seed1[j]!=call) {
+						d1++;
+					}
+					if(seed2[j]!=Fragment.NODATACHAR && seed2[j]!=call) {
+						d2++;
+					}
+				}
 				if(d1 < d2) {
 					cut[i] = false;
 				} else if (d1 > d2) {
@@ -76,24 +134,20 @@ public class SHRThreeAlgorithm implements SIHAlgorithm {
 		}
 		return cut;
 	}
-	private int calculateMec(Block b, boolean[] cut, boolean subset) {
-		int mec = 0; 
-		List<Fragment> fragments = b.getFragments();
-		for(int i=0;i<fragments.size();i++) {
-			if(cut[i] == subset) {
-				Fragment f1 = fragments.get(i);
-				for(int j=i+1;j<fragments.size();j++) {
-					if(cut[j] == subset) {
-						Fragment f2 = fragments.get(j);
-						if(f2.getFirstPos()> f1.getLastPos()) {
-							break;
-						}
-						mec += f1.getHammingDistance(f2);
-					}
-				}
-			}
+	/**
+	 * @return Calls of the given fragment by relative position of the block
+	 */
+	private char [] getCalls(int i) {
+		char [] answer = new char [matrix.getNumColumns()];
+		Arrays.fill(answer, Fragment.NODATACHAR);
+		int [] rowOffsets = matrix.getRowOffsets();
+		for(int e=rowOffsets[i];e<rowOffsets[i+1];e++) {
+			answer[matrix.getRowColumns()[e]] = matrix.getRowAlleles()[e];
 		}
-		return mec;
+		return answer;
+	}
+	private int calculateMec(boolean[] cut, boolean subset) {
+		return (int)graph.getInternalWeight(cut, subset);
 	}
 
 }
@@ -27,6 +27,7 @@ import java.util.List;
 import java.util.Queue;
 
 import mpg.molgen.sih.model.Block;
+import mpg.molgen.sih.model.CallMatrix;
 import mpg.molgen.sih.model.Fragment;
 
 public class SpeedhapAlgorithm implements SIHAlgorithm {
@@ -193,8 +194,8 @@ public class SpeedhapAlgorithm implements SIHAlgorithm {
 			for(int i=0;i<ca.array.length;i++) {
 				if(dataMatrix.assignedCols[i] == 0) {
 					ConflictCell cell = ca.array[i];
-					int ov1 = cell.rows11.size() + cell.rows22.size();
-					int ov2 = cell.rows12.size() + cell.rows21.size();
+					int ov1 = cell.rows11.weight() + cell.rows22.weight();
+					int ov2 = cell.rows12.weight() + cell.rows21.weight();
 					int ovT = Math.max(ov1, ov2);
 					if(ovT>maxOverlap) {
 						maxOverlap = ovT;
@@ -253,7 +254,9 @@ public class SpeedhapAlgorithm implements SIHAlgorithm {
 	}
 	private int calculateScore(int i) {
 		int score =0;
-		for(int j=0;j<dataMatrix.ncols();j++) {
+		//Super profiles are only assigned at the calls of the row
+		for(int e=dataMatrix.rowOffsets[i];e<dataMatrix.rowOffsets[i+1];e++) {
+			int j = dataMatrix.rowColumns[e];
 			if (dataMatrix.superProfile[i][j]==1) {
 				score--;
 			} else if (dataMatrix.superProfile[i][j]==2) {
@@ -275,7 +278,8 @@ public class SpeedhapAlgorithm implements SIHAlgorithm {
 		}
 	}
 	private void assignColumn(int j, short h) {
-		for (int i=0;i<dataMatrix.nrows();i++) {
+		for (int e=dataMatrix.columnOffsets[j];e<dataMatrix.columnOffsets[j+1];e++) {
+			int i = dataMatrix.columnRows[e];
 			char call = dataMatrix.matrix[i][j];
 			if(call!=Fragment.NODATACHAR) {
 				short cellHap = h ;
@@ -338,7 +342,7 @@ public class SpeedhapAlgorithm implements SIHAlgorithm {
 					if(!checkConflict || !cell.isEmpty()) {
 						if(!checkConflict || !cell.hasConflict() ) {
 							if(!checkFullRank || cell.isFullRank()) {
-								if(cell.rows11.size()+cell.rows22.size()>cell.rows12.size()+cell.rows21.size()) {
+								if(cell.rows11.weight()+cell.rows22.weight()>cell.rows12.weight()+cell.rows21.weight()) {
 									assignColumn(i,(short)1);
 								} else {
 									assignColumn(i,(short)2);
@@ -382,29 +386,34 @@ class DataMatrix {
 	char [][] matrix;
 	short [][] superProfile;
 	short [] assignedCols;
+	//Multiplicity of the fragment represented by each row
+	int [] rowWeights;
+	//Cells with calls in the original matrix by row and by column. Removed calls are still listed
+	int [] rowOffsets;
+	int [] rowColumns;
+	int [] columnOffsets;
+	int [] columnRows;
 	public DataMatrix (Block b) {
-		List<Fragment> fragments = b.getFragments();
-		matrix = new char [fragments.size()][b.length()];
-		superProfile = new short [fragments.size()][b.length()];
+		CallMatrix calls = b.getCallMatrix();
+		matrix = new char [calls.getNumRows()][calls.getNumColumns()];
+		superProfile = new short [calls.getNumRows()][calls.getNumColumns()];
 		rowsAssignment = new short [matrix.length];
 		Arrays.fill(rowsAssignment, (short)0);
-		assignedCols = new short [b.length()];
+		rowWeights = calls.getMultiplicities();
+		rowOffsets = calls.getRowOffsets();
+		rowColumns = calls.getRowColumns();
+		columnOffsets = calls.getColumnOffsets();
+		columnRows = calls.getColumnRows();
+		assignedCols = new short [calls.getNumColumns()];
 		Arrays.fill(assignedCols, (short)-1);
+		char [] rowAlleles = calls.getRowAlleles();
 		for(int i=0;i<matrix.length;i++) {
-			Fragment f = fragments.get(i);
-			String calls = f.getExtendedCalls();
-			int relStart = f.getFirstPos() - b.getFirstPos();
-			int relEnd = relStart + calls.length() - 1;
-			for(int j=0;j<matrix[0].length;j++) {
-				if(j>=relStart && j<=relEnd) {
-					matrix[i][j] = calls.charAt(j-relStart);
-					if(matrix[i][j]!=Fragment.NODATACHAR) {
-						assignedCols[j] = 0;
-					}
-				} else {
-					matrix[i][j] = Fragment.NODATACHAR;
-				}
-				superProfile[i][j] = 0;
+			Arrays.fill(matrix[i], Fragment.NODATACHAR);
+			Arrays.fill(superProfile[i], (short)0);
+			for(int e=rowOffsets[i];e<rowOffsets[i+1];e++) {
+				int j = rowColumns[e];
+				matrix[i][j] = rowAlleles[e];
+				assignedCols[j] = 0;
 			}
 		}
 	}
@@ -513,32 +522,39 @@ class ConflictCell {
 	IndexList rows22=new IndexList();
 	public ConflictCell (DataMatrix dm, int j1, int j2) {
 		char [][] matrix = dm.matrix;
-		for(int i=0;i<dm.nrows();i++) {
+		//Only the rows with calls in the shorter column are visited
+		int c = j1;
+		if(dm.columnOffsets[j2+1]-dm.columnOffsets[j2] < dm.columnOffsets[j1+1]-dm.columnOffsets[j1]) {
+			c = j2;
+		}
+		for(int e=dm.columnOffsets[c];e<dm.columnOffsets[c+1];e++) {
+			int i = dm.columnRows[e];
 			if(matrix[i][j1]!=Fragment.NODATACHAR && matrix[i][j2]!=Fragment.NODATACHAR) {
 				if(matrix[i][j1]==Fragment.ALLELE1CHAR && matrix[i][j2]==Fragment.ALLELE1CHAR) {
-					rows11.add(i);
+					rows11.add(i,dm.rowWeights[i]);
 				} else if(matrix[i][j1]==Fragment.ALLELE1CHAR && matrix[i][j2]==Fragment.ALLELE2CHAR) {
-					rows12.add(i);
+					rows12.add(i,dm.rowWeights[i]);
 				} else if(matrix[i][j1]==Fragment.ALLELE2CHAR && matrix[i][j2]==Fragment.ALLELE1CHAR) {
-					rows21.add(i);
+					rows21.add(i,dm.rowWeights[i]);
 				} else if(matrix[i][j1]==Fragment.ALLELE2CHAR && matrix[i][j2]==Fragment.ALLELE2CHAR) {
-					rows22.add(i);
+					rows22.add(i,dm.rowWeights[i]);
 				}
 			}
 		}
 	}
 	public ConflictCell (DataMatrix dm, int j) {
 		char [][] matrix = dm.matrix;
-		for(int i=0;i<dm.nrows();i++) {
+		for(int e=dm.columnOffsets[j];e<dm.columnOffsets[j+1];e++) {
+			int i = dm.columnRows[e];
 			if(dm.rowsAssignment[i]!=0 && matrix[i][j]!=Fragment.NODATACHAR) {
 				if(dm.rowsAssignment[i]==1 && matrix[i][j]==Fragment.ALLELE1CHAR) {
-					rows11.add(i);
+					rows11.add(i,dm.rowWeights[i]);
 				} else if(dm.rowsAssignment[i]==1 && matrix[i][j]==Fragment.ALLELE2CHAR) {
-					rows12.add(i);
+					rows12.add(i,dm.rowWeights[i]);
 				} else if(dm.rowsAssignment[i]==2 && matrix[i][j]==Fragment.ALLELE1CHAR) {
-					rows21.add(i);
+					rows21.add(i,dm.rowWeights[i]);
 				} else if(dm.rowsAssignment[i]==2 && matrix[i][j]==Fragment.ALLELE2CHAR) {
-					rows22.add(i);
+					rows22.add(i,dm.rowWeights[i]);
 				}
 			}
 		}
@@ -595,11 +611,18 @@ class ConflictCell {
 }
 class IndexList {
 	List<Integer> data = new ArrayList<Integer>();
+	//Sum of the weights of the indexes
+	int weight = 0;
 	public void add(int index) {
+		add(index,1);
+	}
+	public void add(int index, int indexWeight) {
 		data.add(index);
+		weight+=indexWeight;
 	}
 	public void add(IndexList i2) {
 		data.addAll(i2.data);
+		weight+=i2.weight;
 	}
 	public List<Integer> getData() {
 		return data;
@@ -607,6 +630,9 @@ class IndexList {
 	public int size () {
 		return data.size();
 	}
+	public int weight () {
+		return weight;
+	}
 	public void sort() {
 		Collections.sort(data);
 	}
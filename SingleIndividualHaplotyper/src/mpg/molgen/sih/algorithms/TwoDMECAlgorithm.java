@@ -19,123 +19,173 @@
  *******************************************************************************/
 package mpg.molgen.sih.algorithms;
 
-import java.util.List;
+import java.util.Arrays;
 
 import mpg.molgen.sih.model.Block;
+import mpg.molgen.sih.model.CallMatrix;
 import mpg.molgen.sih.model.Fragment;
+import mpg.molgen.sih.model.MECEvaluator;
 
 public class TwoDMECAlgorithm implements SIHAlgorithm {
 	private boolean [] cut;
-	private String haplotype="";
+	private MECEvaluator evaluator;
 	@Override
 	public void buildHaplotype(Block b) {
 		cut = new boolean [b.getFragments().size()];
+		evaluator = new MECEvaluator(b);
 		initCut(b);
+		CutConsensus consensus = new CutConsensus(b, cut);
+		//The evaluator keeps the last consensus. It is not updated if the cut does not change the consensus
 		for (int i=0;i<100;i++) {
-			String newhap=CutHaplotypeTranslator.getHaplotype(b, cut, CutHaplotypeTranslator.CONSENSUS_COMBINED);
-			if(newhap.equals(haplotype)) {
+			if(!consensus.updateEvaluator(evaluator)) {
 				break;
 			}
-			haplotype = newhap;
-			updateCut( b);
+			updateCut(consensus);
 		}
-		b.setHaplotype(haplotype);
+		b.setHaplotype(evaluator.getHaplotype());
 	}
+	/**
+	 * Assigns fragments greedily starting from the two fragments with larger hamming distance.
+	 * The next fragment is the fragment with the largest absolute difference between its distances
+	 * to both partial haplotypes. Differences are kept in a heap and only the fragments with calls
+	 * at newly phased SNPs are updated after each assignment. If no pair of fragments disagrees,
+	 * the first fragment is the only seed
+	 */
 	private void initCut(Block b) {
-		List<Fragment> fragments = b.getFragments();
-		char [] hap1 = new char [b.length()];
-		char [] hap2 = new char [b.length()];
-		 
-		for(int i=0;i<hap1.length;i++) {
-			hap1[i] = hap2[i] = Fragment.NODATACHAR;
+		CallMatrix matrix = b.getCallMatrix();
+		int n = matrix.getNumRows();
+		char [] hap1 = new char [matrix.getNumColumns()];
+		char [] hap2 = new char [matrix.getNumColumns()];
+		Arrays.fill(hap1, Fragment.NODATACHAR);
+		Arrays.fill(hap2, Fragment.NODATACHAR);
+		//Get the two fragments with larger hamming distance
+		int [] seeds = findMostDistantPair(matrix);
+		int maxI = seeds[0];
+		int maxJ = seeds[1];
+		//Difference between the distances to hap1 and hap2 of each unassigned fragment. Multiplicities are
+		//not taken into account, so the fragments are assigned in the same order if duplicates are collapsed
+		int [] diffs = new int [n];
+		IndexedMaxHeap unassigned = new IndexedMaxHeap(n);
+		unassigned.fill(new long [n], n);
+		unassigned.remove(maxI);
+		cut[maxI] = false;
+		updateHaplotype(hap1, matrix, maxI, 1, diffs, unassigned);
+		if(maxJ!=maxI) {
+			unassigned.remove(maxJ);
+			cut[maxJ] = true;
+			updateHaplotype(hap2, matrix, maxJ, -1, diffs, unassigned);
 		}
-		boolean [] assigned = new boolean [fragments.size()];
-		for(int i=0;i<assigned.length;i++) {
-			assigned[i] = false;
+		//Assign the other fragments. Fragments having the same distance to both haplotypes go to the
+		//haplotype agreeing with more calls and are assigned after the fragments closer to one haplotype
+		while(!unassigned.isEmpty()) {
+			int j = unassigned.poll();
+			if(diffs[j]!=0) {
+				cut[j] = diffs[j]>0;
+			} else {
+				cut[j] = countAgreements(hap2, matrix, j) > countAgreements(hap1, matrix, j);
+			}
+			if(cut[j]) {
+				updateHaplotype(hap2, matrix, j, -1, diffs, unassigned);
+			} else {
+				updateHaplotype(hap1, matrix, j, 1, diffs, unassigned);
+			}
 		}
-		//Get the two fragments with larger hamming distance
-		int maxD=0;
-		int maxI=0;
-		int maxJ=0;
-		for(int i=0;i<fragments.size();i++) {
-			Fragment f1 = fragments.get(i);
-			for(int j=i+1;j<fragments.size();j++) {
-				Fragment f2 = fragments.get(j);
-				if(f2.getFirstPos()> f1.getLastPos()) {
-					break;
-				}
-				int d = f1.getHammingDistance(f2);
-				if(d>maxD) {
-					maxD=d;
-					maxI=i;
-					maxJ=j;
-				}
+	}
+	/**
+	 * @return Number of calls of fragment i equal to the alleles phased in the given haplotype
+	 */
+	private int countAgreements(char [] hap, CallMatrix matrix, int i) {
+		int [] rowOffsets = matrix.getRowOffsets();
+		int [] rowColumns = matrix.getRowColumns();
+		char [] rowAlleles = matrix.getRowAlleles();
+		int answer = 0;
+		for(int e=rowOffsets[i];e<rowOffsets[i+1];e++) {
+			if(hap[rowColumns[e]]==rowAlleles[e]) {
+				answer++;
 			}
 		}
-		Fragment f1 = fragments.get(maxI);
-		Fragment f2 = fragments.get(maxJ);
-		assigned[maxI] = assigned [maxJ] = true;
-		cut[maxI] = false;
-		cut[maxJ] = true;
-		updateHaplotype(hap1, b.getFirstPos(), f1);
-		updateHaplotype(hap2, b.getFirstPos(), f2);
-		//Assign the other fragments
-		for(int i=0;i<fragments.size()-2;i++) {
-			int maxAbsDiff =0;
-			maxJ = 0;
-			int maxDiff =0;
-			//Find the best next fragment
-			for(int j=0;j<fragments.size();j++) {
-				if(!assigned[j]) {
-					Fragment f = fragments.get(j);
-					int d1 = f.getHammingDistance(new String(hap1),b.getFirstPos());
-					int d2 = f.getHammingDistance(new String(hap2),b.getFirstPos());
-					int diff = d1 - d2;
-					int absDiff = Math.abs(diff);
-					if(absDiff > maxAbsDiff) {
-						maxAbsDiff = absDiff;
-						maxJ = j;
-						maxDiff = diff;
+		return answer;
+	}
+	/**
+	 * Sweeps the columns of the call matrix counting the disagreements of each fragment with the following
+	 * fragments. Multiplicities are not taken into account, so collapsing duplicates does not change the pair.
+	 * Ties are resolved in favor of the first pair sorted by first fragment and then by second fragment
+	 * @return Indexes of the two fragments with the largest number of disagreements or {0,0} if no pair disagrees
+	 */
+	private int [] findMostDistantPair(CallMatrix matrix) {
+		int n = matrix.getNumRows();
+		int [] rowOffsets = matrix.getRowOffsets();
+		int [] rowColumns = matrix.getRowColumns();
+		char [] rowAlleles = matrix.getRowAlleles();
+		int [] columnOffsets = matrix.getColumnOffsets();
+		int [] columnRows = matrix.getColumnRows();
+		char [] columnAlleles = matrix.getColumnAlleles();
+		int [] answer = new int [2];
+		int maxD = 0;
+		int [] disagree = new int [n];
+		int [] touched = new int [n];
+		for(int i=0;i<n;i++) {
+			int nTouched = 0;
+			for(int e=rowOffsets[i];e<rowOffsets[i+1];e++) {
+				int relPos = rowColumns[e];
+				int end = columnOffsets[relPos+1];
+				//Columns are sorted by fragment, so the following fragments are stored after fragment i
+				int own = Arrays.binarySearch(columnRows, columnOffsets[relPos], end, i);
+				for(int c=own+1;c<end;c++) {
+					if(columnAlleles[c]!=rowAlleles[e]) {
+						int j = columnRows[c];
+						if(disagree[j]==0) {
+							touched[nTouched] = j;
+							nTouched++;
+						}
+						disagree[j]++;
 					}
 				}
 			}
-			Fragment f = fragments.get(maxJ);
-			assigned[maxJ] = true;
-			cut[maxJ] = (maxDiff==maxAbsDiff);
-			if(cut[maxJ]) {
-				updateHaplotype(hap2, b.getFirstPos(), f);
-			} else {
-				updateHaplotype(hap1, b.getFirstPos(), f);
+			for(int t=0;t<nTouched;t++) {
+				int j = touched[t];
+				if(disagree[j]>maxD || (disagree[j]==maxD && answer[0]==i && j<answer[1])) {
+					maxD = disagree[j];
+					answer[0] = i;
+					answer[1] = j;
+				}
+				disagree[j] = 0;
 			}
 		}
+		return answer;
 	}
-	private void updateHaplotype(char[] hap, int start, Fragment f) {
-		
-		String calls = f.getExtendedCalls();
-		for(int i=0;i<calls.length();i++) {
-			int relPos = f.getFirstPos() + i - start;
-			if(hap[relPos]==Fragment.NODATACHAR && calls.charAt(i)!=Fragment.NODATACHAR) {
-				hap[relPos] = calls.charAt(i);
+	/**
+	 * Phases in the given haplotype the SNPs called by fragment i that are not phased yet and updates
+	 * the differences of the unassigned fragments disagreeing at those SNPs
+	 * @param sign 1 if the haplotype is hap1 or -1 if it is hap2
+	 */
+	private void updateHaplotype(char[] hap, CallMatrix matrix, int i, int sign, int [] diffs, IndexedMaxHeap unassigned) {
+		int [] rowOffsets = matrix.getRowOffsets();
+		int [] rowColumns = matrix.getRowColumns();
+		char [] rowAlleles = matrix.getRowAlleles();
+		int [] columnOffsets = matrix.getColumnOffsets();
+		int [] columnRows = matrix.getColumnRows();
+		char [] columnAlleles = matrix.getColumnAlleles();
+		for(int e=rowOffsets[i];e<rowOffsets[i+1];e++) {
+			int relPos = rowColumns[e];
+			if(hap[relPos]==Fragment.NODATACHAR) {
+				hap[relPos] = rowAlleles[e];
+				for(int c=columnOffsets[relPos];c<columnOffsets[relPos+1];c++) {
+					int j = columnRows[c];
+					if(columnAlleles[c]!=hap[relPos] && unassigned.contains(j)) {
+						diffs[j]+=sign;
+						unassigned.put(j, Math.abs(diffs[j]));
+					}
+				}
 			}
 		}
-		
 	}
-	private void updateCut(Block b) {
-		List<Fragment> fragments = b.getFragments();
-		for(int i=0;i<fragments.size();i++) {
-			Fragment f = fragments.get(i);
-			int distanceHap1 = f.getHammingDistance(haplotype,b.getFirstPos());
-			int overlapping = f.getOverlappingCount(haplotype, b.getFirstPos());
-			int distanceHap2 = overlapping - distanceHap1;
+	private void updateCut(CutConsensus consensus) {
+		for(int i=0;i<cut.length;i++) {
+			int distanceHap1 = evaluator.getDistanceHap1(i);
+			int distanceHap2 = evaluator.getDistanceHap2(i);
 			if(distanceHap1!=distanceHap2) {
-				cut[i] = distanceHap2 < distanceHap1;
-			} else {
-				distanceHap1 = f.getHamming2(haplotype,b.getFirstPos());
-				distanceHap2 = -distanceHap1;
-				if(distanceHap1 != distanceHap2) {
-					cut[i] = distanceHap2 < distanceHap1;
-				}
-				
+				consensus.setSide(i, distanceHap2 < distanceHap1);
 			}
 		}
 	}
@@ -19,58 +19,101 @@
  *******************************************************************************/
 package mpg.molgen.sih.algorithms;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
 import mpg.molgen.sih.model.Block;
-import mpg.molgen.sih.model.Fragment;
+import mpg.molgen.sih.model.MECEvaluator;
 
-public class WMLFAlgorithm implements SIHAlgorithm {
-	private boolean [] cut;
-	private String haplotype="";
-	private Random random = new Random();
+public class WMLFAlgorithm implements MultiStartAlgorithm, RandomizedAlgorithm {
+	private int restarts = 100;
+	private int iterations = 100;
+	private long seed = 0;
+	private RestartsBudget budget = new RestartsBudget();
+	@Override
+	public void setRestartsBudget(RestartsBudget budget) {
+		this.budget = budget;
+	}
+	/**
+	 * @param restarts Number of random cuts to optimize for each block. At least one
+	 */
+	public void setRestarts(int restarts) {
+		this.restarts = Math.max(1, restarts);
+	}
+	/**
+	 * @param iterations Maximum number of times that each cut is updated from its consensus haplotype. At least one
+	 */
+	public void setIterations(int iterations) {
+		this.iterations = Math.max(1, iterations);
+	}
+	/**
+	 * @param seed Seed for the random cuts
+	 */
+	@Override
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
 	@Override
 	public void buildHaplotype(Block b) {
-		cut = new boolean [b.getFragments().size()];
-		int bestMEC = -1;
-		String bestHaplotype = "";
-		for (int iter=0;iter<100;iter++) {
-			initCut(b);
-			haplotype="";
-			for (int i=0;i<100;i++) {
-				//TODO: Make get weighted haplotype
-				String newhap=CutHaplotypeTranslator.getHaplotype(b, cut, CutHaplotypeTranslator.CONSENSUS_COMBINED);
-				if(newhap.equals(haplotype)) {
-					break;
-				}
-				haplotype = newhap;
-				updateCut( b);
-			}
-			if(bestMEC == -1 || b.getMEC()< bestMEC) {
-				bestMEC = b.getMEC();
-				bestHaplotype = haplotype;
-			}
-			
+		MultiStartEngine<String> engine = new MultiStartEngine<String>(seed);
+		engine.setRestartsBudget(budget);
+		//A haplotype with MEC zero can not be improved
+		engine.setLowerBound(0);
+		int nWorkers = Math.min(engine.getParallelism(), restarts);
+		List<WMLFWorker> workers = new ArrayList<WMLFWorker>(nWorkers);
+		for(int i=0;i<nWorkers;i++) {
+			workers.add(new WMLFWorker(b, iterations));
 		}
+		String bestHaplotype = engine.run(workers, restarts);
+		b.setRestarts(engine.getRestartsUsed());
 		b.setHaplotype(bestHaplotype);
 	}
-	private void updateCut(Block b) {
-		List<Fragment> fragments = b.getFragments();
-		for(int i=0;i<fragments.size();i++) {
-			Fragment f = fragments.get(i);
-			//TODO: Weighted distance
-			int distanceHap1 = f.getHammingDistance(haplotype,b.getFirstPos());
-			int overlapping = f.getOverlappingCount(haplotype, b.getFirstPos());
-			int distanceHap2 = overlapping - distanceHap1;
-			if(distanceHap2 != distanceHap1) {
-				cut[i] = distanceHap2 < distanceHap1;
+}
+/**
+ * Optimizes random cuts updating each cut from its consensus haplotype until the consensus does not change
+ */
+class WMLFWorker implements RestartWorker<String> {
+	private int iterations;
+	private boolean [] cut;
+	private MECEvaluator evaluator;
+	private CutConsensus consensus;
+	
+	public WMLFWorker(Block b, int iterations) {
+		this.iterations = iterations;
+		cut = new boolean [b.getFragments().size()];
+		evaluator = new MECEvaluator(b);
+		consensus = new CutConsensus(b, cut);
+	}
+	@Override
+	public long run(int restart, Random random) {
+		for(int i=0;i<cut.length;i++) {
+			cut[i] = random.nextBoolean();
+		}
+		consensus.setCut(cut);
+		//TODO: Make get weighted haplotype
+		//Only SNPs that changed since the last update of the evaluator are processed
+		for (int i=0;i<iterations;i++) {
+			//The new random cut is always updated at least once
+			if(!consensus.updateEvaluator(evaluator) && i>0) {
+				break;
 			}
+			updateCut();
 		}
-		
+		return evaluator.getMEC();
+	}
+	@Override
+	public String getSolution() {
+		return evaluator.getHaplotype();
 	}
-	private void initCut(Block b) {
+	private void updateCut() {
+		//TODO: Weighted distance
 		for(int i=0;i<cut.length;i++) {
-			cut[i] = random.nextBoolean();
+			int distanceHap1 = evaluator.getDistanceHap1(i);
+			int distanceHap2 = evaluator.getDistanceHap2(i);
+			if(distanceHap2 != distanceHap1) {
+				consensus.setSide(i, distanceHap2 < distanceHap1);
+			}
 		}
 	}
 }
@@ -21,12 +21,19 @@ package mpg.molgen.sih.algorithms;
 
 import mpg.molgen.sih.model.Block;
 
-public class WRefhapAlgorithm implements SIHAlgorithm {
+public class WRefhapAlgorithm implements MultiStartAlgorithm {
+	private RestartsBudget budget = new RestartsBudget();
+	@Override
+	public void setRestartsBudget(RestartsBudget budget) {
+		this.budget = budget;
+	}
 
 	@Override
 	public void buildHaplotype(Block b) {
 		FragmentsCutBuilder builder = new FragmentsCutBuilder(b.getFragments(),true);
+		builder.setRestartsBudget(budget);
 		builder.calculateMaxCut();
+		b.setRestarts(builder.getRestartsUsed());
 		b.setHaplotype(CutHaplotypeTranslator.getHaplotype(b,builder.getCut(),CutHaplotypeTranslator.CONSENSUS_COMBINED));
 
 	}
@@ -21,20 +21,45 @@ package mpg.molgen.sih.main;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+import mpg.molgen.sih.algorithms.MultiStartAlgorithm;
+import mpg.molgen.sih.algorithms.RandomizedAlgorithm;
+import mpg.molgen.sih.algorithms.RestartsBudget;
+import mpg.molgen.sih.algorithms.SHRThreeAlgorithm;
 import mpg.molgen.sih.algorithms.SIHAlgorithm;
+import mpg.molgen.sih.algorithms.WMLFAlgorithm;
 import mpg.molgen.sih.model.Block;
 import mpg.molgen.sih.model.BlocksBuilder;
 import mpg.molgen.sih.model.Fragment;
 import mpg.molgen.sih.model.FragmentsFileHandler;
+import mpg.molgen.sih.model.FragmentsStreamReader;
+import mpg.molgen.sih.model.StreamingBlocksBuilder;
+import mpg.molgen.sih.model.WeakLinksSplitter;
 
 public class SIH {
 	private List<Integer> variantPositions = new ArrayList<Integer>();
 	private String algorithmClassName = "mpg.molgen.sih.algorithms.RefhapAlgorithm";
 	private SIHAlgorithm algClass;
 	private Random r = new Random();
+	private int numThreads = 1;
+	private RestartsBudget restartsBudget = new RestartsBudget();
+	private long seed = 0;
+	private int iterations = 0;
+	//Blocks longer than this number of SNPs are phased by windows. Zero to phase every block as a whole
+	private int windowSize = 0;
+	private int windowOverlap = 0;
+	//Blocks are split at boundaries supported by less than this number of fragments. Zero to keep blocks connected by any fragment
+	private double minLinkSupport = 0;
+	private int weakLinksCut = 0;
 	/**
 	 * @return the algorithmClassName
 	 */
@@ -49,21 +74,308 @@ public class SIH {
 	 */
 	public void setAlgorithmClassName(String algorithmClassName) throws Exception {
 		this.algorithmClassName = algorithmClassName;
-		algClass = (SIHAlgorithm)Class.forName(algorithmClassName).newInstance();
+		algClass = newAlgorithm();
+	}
+	/**
+	 * @return the numThreads
+	 */
+	public int getNumThreads() {
+		return numThreads;
+	}
+	/**
+	 * @param numThreads Number of threads used to phase blocks concurrently
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+	/**
+	 * @return the restartsBudget
+	 */
+	public RestartsBudget getRestartsBudget() {
+		return restartsBudget;
+	}
+	/**
+	 * @param restartsBudget Limits for the restarts run on each block by algorithms using restarts
+	 */
+	public void setRestartsBudget(RestartsBudget restartsBudget) {
+		this.restartsBudget = restartsBudget;
+		algClass = null;
+	}
+	/**
+	 * @return the seed
+	 */
+	public long getSeed() {
+		return seed;
+	}
+	/**
+	 * @param seed Seed for the random numbers used by randomized algorithms
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+		algClass = null;
+	}
+	/**
+	 * @return the iterations
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+	/**
+	 * @param iterations Maximum number of times that WMLF updates each cut. Zero to use the default of the algorithm
+	 */
+	public void setIterations(int iterations) {
+		this.iterations = iterations;
+		algClass = null;
+	}
+	/**
+	 * @return the windowSize
+	 */
+	public int getWindowSize() {
+		return windowSize;
+	}
+	/**
+	 * @return the windowOverlap
+	 */
+	public int getWindowOverlap() {
+		return windowOverlap;
+	}
+	/**
+	 * Sets the windows to phase large blocks
+	 * @param windowSize Blocks longer than this number of SNPs are phased by windows. Zero to phase every block as a whole
+	 * @param windowOverlap Number of SNPs shared by consecutive windows
+	 */
+	public void setWindows(int windowSize, int windowOverlap) {
+		if(windowSize > 0 && (windowOverlap < 0 || windowOverlap >= windowSize)) {
+			throw new IllegalArgumentException("Window overlap must be smaller than the window size. Overlap: "+windowOverlap+" size: "+windowSize);
+		}
+		this.windowSize = windowSize;
+		this.windowOverlap = windowOverlap;
+	}
+	/**
+	 * @return the minLinkSupport
+	 */
+	public double getMinLinkSupport() {
+		return minLinkSupport;
+	}
+	/**
+	 * @param minLinkSupport Blocks are split at boundaries between SNPs supported by less than this number
+	 * of fragments weighted by call quality. Zero to keep blocks connected by any fragment
+	 */
+	public void setMinLinkSupport(double minLinkSupport) {
+		this.minLinkSupport = minLinkSupport;
+	}
+	/**
+	 * @return Number of weak boundaries where blocks were split
+	 */
+	public int getWeakLinksCut() {
+		return weakLinksCut;
+	}
+	/**
+	 * Splits the given blocks at weak boundaries if a minimum link support is set
+	 */
+	private List<Block> splitWeakLinks(List<Block> blocks) {
+		if(minLinkSupport <= 0) {
+			return blocks;
+		}
+		WeakLinksSplitter splitter = new WeakLinksSplitter(minLinkSupport);
+		List<Block> answer = splitter.splitBlocks(blocks);
+		weakLinksCut += splitter.getCuts();
+		return answer;
+	}
+	/**
+	 * @return New instance of the algorithm. Algorithms keep the state of the block being phased in fields
+	 * so each concurrent task needs its own instance
+	 */
+	SIHAlgorithm newAlgorithm() throws Exception {
+		SIHAlgorithm answer = (SIHAlgorithm)Class.forName(algorithmClassName).newInstance();
+		if(answer instanceof MultiStartAlgorithm) {
+			((MultiStartAlgorithm)answer).setRestartsBudget(restartsBudget);
+		}
+		if(answer instanceof RandomizedAlgorithm) {
+			((RandomizedAlgorithm)answer).setSeed(seed);
+		}
+		//The maximum number of restarts is the number of restarts of algorithms with a fixed default
+		int maxRestarts = restartsBudget.getMaxRestarts();
+		if(answer instanceof WMLFAlgorithm) {
+			WMLFAlgorithm wmlf = (WMLFAlgorithm)answer;
+			if(maxRestarts > 0) {
+				wmlf.setRestarts(maxRestarts);
+			}
+			if(iterations > 0) {
+				wmlf.setIterations(iterations);
+			}
+		} else if(answer instanceof SHRThreeAlgorithm && maxRestarts > 0) {
+			((SHRThreeAlgorithm)answer).setRestarts(maxRestarts);
+		}
+		return answer;
 	}
 	public List<Block> buildHaplotypes (List<Fragment> fragments) throws Exception {
 		BlocksBuilder blocksBuilder = new BlocksBuilder();
-		List<Block> blocks = blocksBuilder.buildBlocks(new Block(fragments));
-		for(Block b:blocks) {
-			buildHaplotype(b);
+		List<Block> blocks = splitWeakLinks(blocksBuilder.buildBlocks(new Block(fragments)));
+		if(numThreads > 1) {
+			buildHaplotypesParallel(blocks);
+		} else {
+			for(Block b:blocks) {
+				buildHaplotype(b);
+			}
 		}
 		return blocks;
 	}
+	/**
+	 * Phases the given blocks on a work-stealing pool. Larger blocks are submitted first
+	 * to avoid waiting for a large block at the end
+	 */
+	private void buildHaplotypesParallel(List<Block> blocks) throws Exception {
+		List<Block> sortedBlocks = new ArrayList<Block>(blocks);
+		Collections.sort(sortedBlocks, new BlocksSizeComparator());
+		ForkJoinPool pool = new ForkJoinPool(numThreads);
+		try {
+			List<Future<Block>> tasks = new ArrayList<Future<Block>>(sortedBlocks.size());
+			for(Block b:sortedBlocks) {
+				tasks.add(pool.submit(new PhasingTask(this, b)));
+			}
+			for(Future<Block> task:tasks) {
+				waitTask(task);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+	private static Block waitTask(Future<Block> task) throws Exception {
+		try {
+			return task.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof Exception) {
+				throw (Exception)cause;
+			}
+			throw e;
+		}
+	}
+	/**
+	 * Phases and prints each block as soon as it is completely read from the fragments file.
+	 * If more than one thread is used, blocks are phased while the next blocks are read.
+	 * The file must be sorted by first position
+	 * @param inputFile Fragments file sorted by first position
+	 * @param outputFile File to write the phased blocks
+	 * @param collapseDuplicates Tells if fragments with identical calls should be collapsed within each block
+	 */
+	public void buildHaplotypesStreaming(String inputFile, String outputFile, boolean collapseDuplicates) throws Exception {
+		buildHaplotypesStreaming(inputFile, outputFile, collapseDuplicates, System.currentTimeMillis());
+	}
+	/**
+	 * Phases and prints each block as soon as it is completely read from the fragments file.
+	 * The final summary line reports the time elapsed since the given start time
+	 * @param startTime Time in milliseconds when the process started
+	 */
+	public void buildHaplotypesStreaming(String inputFile, String outputFile, boolean collapseDuplicates, long startTime) throws Exception {
+		FragmentsFileHandler loader = new FragmentsFileHandler();
+		FragmentsStreamReader reader = new FragmentsStreamReader(inputFile);
+		StreamingBlocksBuilder blocksBuilder = new StreamingBlocksBuilder(reader);
+		PrintStream out = new PrintStream(outputFile);
+		int nBlocks = 0;
+		int nFragments = 0;
+		int nDistinct = 0;
+		int totalPhased=0;
+		int totalCalls=0;
+		int totalMEC =0;
+		int totalWindowsMEC =0;
+		ForkJoinPool pool = null;
+		if(numThreads > 1) {
+			pool = new ForkJoinPool(numThreads);
+		}
+		//Blocks being phased in input order. Limited to keep memory bounded
+		LinkedList<Future<Block>> pending = new LinkedList<Future<Block>>();
+		int maxPending = 4*numThreads;
+		List<Block> phasedBlocks = new ArrayList<Block>();
+		try {
+			Block b = blocksBuilder.nextBlock();
+			while(b!=null || pending.size()>0) {
+				if(b!=null) {
+					nFragments+=b.getFragments().size();
+					if(collapseDuplicates) {
+						b = new Block(loader.collapseDuplicates(b.getFragments()));
+					}
+					nDistinct+=b.getFragments().size();
+					List<Block> parts = new ArrayList<Block>(1);
+					parts.add(b);
+					for(Block part:splitWeakLinks(parts)) {
+						nBlocks++;
+						if(pool == null) {
+							buildHaplotype(part);
+							phasedBlocks.add(part);
+						} else {
+							pending.add(pool.submit(new PhasingTask(this, part)));
+						}
+					}
+					b = blocksBuilder.nextBlock();
+				}
+				while(pending.size()>0 && (b==null || pending.size()>=maxPending || pending.getFirst().isDone())) {
+					phasedBlocks.add(waitTask(pending.removeFirst()));
+				}
+				for(Block phased:phasedBlocks) {
+					printBlockSummary(phased);
+					totalPhased+=phased.getPhased();
+					totalCalls+=phased.getCalls();
+					totalMEC+=phased.getMEC();
+					totalWindowsMEC+=getMECBeforeStitching(phased);
+					printBlock(phased,out);
+				}
+				phasedBlocks.clear();
+			}
+		} finally {
+			if(pool!=null) pool.shutdown();
+		}
+		reader.close();
+		out.close();
+		if(collapseDuplicates) {
+			System.out.println("Fragments: "+nFragments+" Distinct fragments: "+nDistinct);
+		}
+		if(minLinkSupport>0) {
+			System.out.println("Weak links cut: "+weakLinksCut);
+		}
+		System.out.println("Number of blocks:" +nBlocks);
+		if(windowSize>0) {
+			System.out.println("MEC before stitching: "+totalWindowsMEC);
+		}
+		double diff = System.currentTimeMillis() - startTime;
+		diff/=1000;
+		System.out.println("Phased: "+totalPhased+ " Calls: "+totalCalls+ " MEC: "+totalMEC+" Time(s): "+diff);
+	}
 	public void buildHaplotype (Block b) throws Exception {
 		if(algClass == null) {
-			algClass = (SIHAlgorithm)Class.forName(algorithmClassName).newInstance();
+			algClass = newAlgorithm();
 		}
-		algClass.buildHaplotype(b);
+		buildHaplotype(b, algClass);
+	}
+	/**
+	 * Phases the given block with the given algorithm or by windows if the block is larger than a window
+	 */
+	void buildHaplotype (Block b, SIHAlgorithm algorithm) throws Exception {
+		if(windowSize > 0) {
+			WindowedPhaser phaser = new WindowedPhaser(this, windowSize, windowOverlap);
+			if(phaser.isWindowed(b)) {
+				phaser.buildHaplotype(b);
+				return;
+			}
+		}
+		algorithm.buildHaplotype(b);
+	}
+	private static int getMECBeforeStitching(Block b) {
+		if(b.getWindows()>0) {
+			return b.getWindowsMEC();
+		}
+		return b.getMEC();
+	}
+	private static void printBlockSummary(Block b) {
+		String summary = "Offset: "+b.getFirstPos()+" Phased: "+b.getPhased()+ " Calls: "+b.getCalls()+ " MEC: "+b.getMEC();
+		if(b.getRestarts()>0) {
+			summary+=" Restarts: "+b.getRestarts();
+		}
+		if(b.getWindows()>0) {
+			summary+=" Windows: "+b.getWindows()+" MEC before stitching: "+b.getWindowsMEC();
+		}
+		System.out.println(summary);
 	}
 	private void printBlock(Block b, PrintStream out) {
 		out.println("BLOCK: offset: "+(b.getFirstPos()+1)+" len: "+b.getHaplotype().length()+" phased: "+b.getPhased());
@@ -103,6 +415,12 @@ public class SIH {
 		String snpsFile =null;
 		int posColumn = 0;
 		String algorithmName = "Refhap";
+		boolean collapseDuplicates = false;
+		boolean streaming = false;
+		RestartsBudget budget = new RestartsBudget();
+		int windowSize = 0;
+		int windowOverlap = -1;
+		double minLinkSupport = 0;
 		int i=0;
 		
 		while(i<args.length && args[i].startsWith("-")) {
@@ -115,6 +433,37 @@ public class SIH {
 			} else if("-a".equals(args[i])) {
 				i++;
 				algorithmName = args[i];
+			} else if("-d".equals(args[i])) {
+				collapseDuplicates = true;
+			} else if("-s".equals(args[i])) {
+				streaming = true;
+			} else if("-t".equals(args[i])) {
+				i++;
+				h.setNumThreads(Integer.parseInt(args[i]));
+			} else if("-r".equals(args[i])) {
+				i++;
+				budget.setMaxRestarts(Integer.parseInt(args[i]));
+			} else if("-b".equals(args[i])) {
+				i++;
+				budget.setMaxTimeMillis((long)(1000*Double.parseDouble(args[i])));
+			} else if("-p".equals(args[i])) {
+				i++;
+				budget.setPatience(Integer.parseInt(args[i]));
+			} else if("-i".equals(args[i])) {
+				i++;
+				h.setIterations(Integer.parseInt(args[i]));
+			} else if("-e".equals(args[i])) {
+				i++;
+				h.setSeed(Long.parseLong(args[i]));
+			} else if("-w".equals(args[i])) {
+				i++;
+				windowSize = Integer.parseInt(args[i]);
+			} else if("-o".equals(args[i])) {
+				i++;
+				windowOverlap = Integer.parseInt(args[i]);
+			} else if("-l".equals(args[i])) {
+				i++;
+				minLinkSupport = Double.parseDouble(args[i]);
 			} else if ("-h".equals(args[i])) {
 				printUsage(System.out);
 				System.exit(0);
@@ -133,22 +482,45 @@ public class SIH {
 		}
 		String inputFile = args[i++];
 		String outputFile = args[i++];
+		h.setRestartsBudget(budget);
+		if(windowOverlap < 0) {
+			windowOverlap = windowSize/10;
+		}
+		h.setWindows(windowSize, windowOverlap);
+		h.setMinLinkSupport(minLinkSupport);
 		h.setAlgorithmClassName("mpg.molgen.sih.algorithms."+algorithmName+"Algorithm");
+		if(streaming) {
+			h.buildHaplotypesStreaming(inputFile, outputFile, collapseDuplicates, time);
+			return;
+		}
 		List<Fragment> f = loader.loadFragments(inputFile);
+		if(collapseDuplicates) {
+			int n = f.size();
+			f = loader.collapseDuplicates(f);
+			System.out.println("Fragments: "+n+" Distinct fragments: "+f.size());
+		}
 		List<Block> blocks = h.buildHaplotypes(f);
+		if(h.minLinkSupport>0) {
+			System.out.println("Weak links cut: "+h.weakLinksCut);
+		}
 		System.out.println("Number of blocks:" +blocks.size());
 		PrintStream out = new PrintStream(outputFile);
 		int totalPhased=0;
 		int totalCalls=0;
 		int totalMEC =0;
+		int totalWindowsMEC =0;
 		for(Block b:blocks) {
-			System.out.println("Offset: "+b.getFirstPos()+" Phased: "+b.getPhased()+ " Calls: "+b.getCalls()+ " MEC: "+b.getMEC());
+			printBlockSummary(b);
 			totalPhased+=b.getPhased();
 			totalCalls+=b.getCalls();
 			totalMEC+=b.getMEC();
+			totalWindowsMEC+=getMECBeforeStitching(b);
 			h.printBlock(b,out);
 		}
 		out.close();
+		if(h.windowSize>0) {
+			System.out.println("MEC before stitching: "+totalWindowsMEC);
+		}
 		double diff = System.currentTimeMillis() - time;
 		diff/=1000;
 		System.out.println("Phased: "+totalPhased+ " Calls: "+totalCalls+ " MEC: "+totalMEC+" Time(s): "+diff);
@@ -160,6 +532,44 @@ public class SIH {
 		out.println("\t-v FILE\t\t: Text file with genomic coordinates of variants.");
 		out.println("\t-c INT\t\t: Column in the variants file where coordinates are located.");
 		out.println("\t-a STRING\t: Name of the algorithm to run (Refhap, DGS, FastHare).");
+		out.println("\t-d\t\t: Collapse fragments with identical calls into a single weighted fragment.");
+		out.println("\t-s\t\t: Phase and print each block while the input file is read. Requires fragments sorted by start.");
+		out.println("\t-t INT\t\t: Number of threads to phase blocks concurrently.");
+		out.println("\t-r INT\t\t: Maximum number of restarts per block for Refhap. Number of restarts per block for WMLF and SHRThree.");
+		out.println("\t-b DOUBLE\t: Maximum time in seconds spent on the restarts of each block.");
+		out.println("\t-p INT\t\t: Stop restarts after this number of restarts without improvement.");
+		out.println("\t-e INT\t\t: Seed for the random numbers of WMLF and SHRThree. Default 0.");
+		out.println("\t-i INT\t\t: Maximum number of times that WMLF updates each cut. Default 100.");
+		out.println("\t-w INT\t\t: Phase blocks longer than this number of SNPs by windows of this size.");
+		out.println("\t-o INT\t\t: Number of SNPs shared by consecutive windows. Default 10% of the window size.");
+		out.println("\t-l DOUBLE\t: Split blocks where SNPs are linked by less than this number of fragments weighted by call quality.");
+	}
+	
+}
+class PhasingTask implements Callable<Block> {
+	private SIH sih;
+	private Block block;
+	public PhasingTask(SIH sih, Block block) {
+		this.sih = sih;
+		this.block = block;
+	}
+	@Override
+	public Block call() throws Exception {
+		sih.buildHaplotype(block, sih.newAlgorithm());
+		return block;
+	}
+}
+class BlocksSizeComparator implements Comparator<Block> {
+
+	@Override
+	public int compare(Block b1, Block b2) {
+		//Larger blocks first
+		int s1 = b1.getFragments().size();
+		int s2 = b2.getFragments().size();
+		if(s1!=s2) {
+			return s2-s1;
+		}
+		return b1.getFirstPos()-b2.getFirstPos();
 	}
 	
 }
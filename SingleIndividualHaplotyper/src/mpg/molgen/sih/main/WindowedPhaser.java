@@ -0,0 +1,393 @@
+/*******************************************************************************
+ * SingleIndividualHaplotyper - Efficient heuristic algorithms for the SIH problem
+ * Copyright 2011 Jorge Duitama
+ *
+ * This file is part of SingleIndividualHaplotyper.
+ *
+ *     SingleIndividualHaplotyper is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     SingleIndividualHaplotyper is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with SingleIndividualHaplotyper.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package mpg.molgen.sih.main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import mpg.molgen.sih.algorithms.SIHAlgorithm;
+import mpg.molgen.sih.model.Block;
+import mpg.molgen.sih.model.BlocksBuilder;
+import mpg.molgen.sih.model.Fragment;
+import mpg.molgen.sih.model.FragmentsComparator;
+import mpg.molgen.sih.model.MECEvaluator;
+
+/**
+ * Phases large blocks splitting them in overlapping windows of SNPs. Windows are phased independently,
+ * concurrently if the block is phased within a ForkJoinPool, and then their haplotypes are stitched.
+ * The orientation of each window is chosen from the fragments spanning the boundaries between windows
+ * and from the alleles phased by consecutive windows within their overlap
+ */
+public class WindowedPhaser {
+	//Maximum number of passes complementing single pieces to decrease the MEC after stitching
+	private static final int MAX_REFINEMENT_PASSES = 5;
+	private SIH sih;
+	private int windowSize;
+	private int overlap;
+	
+	/**
+	 * @param sih Object creating instances of the algorithm to phase each window
+	 * @param windowSize Number of SNPs of each window
+	 * @param overlap Number of SNPs shared by consecutive windows
+	 */
+	public WindowedPhaser(SIH sih, int windowSize, int overlap) {
+		if(windowSize <= 0 || overlap < 0 || overlap >= windowSize) {
+			throw new IllegalArgumentException("Invalid window size "+windowSize+" or overlap "+overlap);
+		}
+		this.sih = sih;
+		this.windowSize = windowSize;
+		this.overlap = overlap;
+	}
+	/**
+	 * @return true if the given block is larger than a window
+	 */
+	public boolean isWindowed(Block b) {
+		return b.length() > windowSize;
+	}
+	public void buildHaplotype(Block b) throws Exception {
+		List<WindowPhasingTask> windows = new ArrayList<WindowPhasingTask>();
+		int step = windowSize - overlap;
+		for(int first = b.getFirstPos();;first+=step) {
+			int last = Math.min(first+windowSize-1, b.getLastPos());
+			windows.add(new WindowPhasingTask(b, first, last, sih.newAlgorithm()));
+			if(last == b.getLastPos()) {
+				break;
+			}
+		}
+		if(ForkJoinTask.inForkJoinPool()) {
+			ForkJoinTask.invokeAll(windows);
+		} else {
+			for(WindowPhasingTask w:windows) {
+				w.compute();
+			}
+		}
+		stitch(b, windows);
+	}
+	/**
+	 * Each position of the block is taken from the window whose core contains the position. The core of a window
+	 * starts in the middle of its overlap with the previous window. The phased positions of each connected component
+	 * of a window within the core form a piece. Then the orientations of the pieces are chosen joining
+	 * pairs of pieces in decreasing order of the evidence supporting their relative orientation
+	 */
+	private void stitch(Block b, List<WindowPhasingTask> windows) {
+		int firstPos = b.getFirstPos();
+		char [] alleles = new char [b.length()];
+		int [] pieces = new int [b.length()];
+		Arrays.fill(alleles, Fragment.NODATACHAR);
+		Arrays.fill(pieces, -1);
+		List<Block> components = new ArrayList<Block>();
+		//First position of the core of the window of each piece
+		List<Integer> boundaries = new ArrayList<Integer>();
+		int windowsMEC = 0;
+		int restarts = 0;
+		int previousLast = firstPos-1;
+		for(int k=0;k<windows.size();k++) {
+			WindowPhasingTask w = windows.get(k);
+			int boundary = (w.getFirst()+previousLast+1)/2;
+			int nextBoundary = b.getLastPos()+1;
+			if(k+1<windows.size()) {
+				nextBoundary = (windows.get(k+1).getFirst()+w.getLast()+1)/2;
+			}
+			for(Block component:w.getComponents()) {
+				windowsMEC+=component.getMEC();
+				restarts+=component.getRestarts();
+				int piece = components.size();
+				components.add(component);
+				boundaries.add(boundary);
+				String compHap = component.getHaplotype();
+				int first = Math.max(boundary, component.getFirstPos());
+				int last = Math.min(nextBoundary-1, component.getLastPos());
+				for(int pos=first;pos<=last;pos++) {
+					char call = compHap.charAt(pos-component.getFirstPos());
+					if(call!=Fragment.NODATACHAR) {
+						alleles[pos-firstPos] = call;
+						pieces[pos-firstPos] = piece;
+					}
+				}
+			}
+			previousLast = w.getLast();
+		}
+		int nPieces = components.size();
+		//Positive values support complementing one piece with respect to the other
+		Map<Long,long[]> evidence = new HashMap<Long, long[]>();
+		addFragmentsEvidence(b, alleles, pieces, nPieces, evidence);
+		addOverlapsEvidence(b, alleles, pieces, components, boundaries, evidence);
+		boolean [] flips = orientPieces(nPieces, evidence);
+		char [] hap = new char [b.length()];
+		for(int i=0;i<hap.length;i++) {
+			char call = alleles[i];
+			if(call!=Fragment.NODATACHAR && flips[pieces[i]]) {
+				call = complement(call);
+			}
+			hap[i] = call;
+		}
+		b.setHaplotype(refineOrientations(b, new String(hap), pieces, nPieces));
+		b.setRestarts(restarts);
+		b.setWindowsStatistics(windows.size(), windowsMEC);
+	}
+	/**
+	 * For each fragment and each pair of pieces having calls of the fragment, adds the difference between the
+	 * MEC of the fragment if both pieces keep their orientation and the MEC if one of them is complemented
+	 */
+	private void addFragmentsEvidence(Block b, char [] alleles, int [] pieces, int nPieces, Map<Long,long[]> evidence) {
+		int [] agree = new int [nPieces];
+		int [] disagree = new int [nPieces];
+		int [] touched = new int [nPieces];
+		for(Fragment f:b.getFragments()) {
+			int nTouched = 0;
+			for(int k=0;k<f.getnCalls();k++) {
+				int relPos = f.getCallPosition(k)-b.getFirstPos();
+				int piece = pieces[relPos];
+				if(piece<0) {
+					continue;
+				}
+				if(agree[piece]+disagree[piece]==0) {
+					touched[nTouched] = piece;
+					nTouched++;
+				}
+				if(alleles[relPos] == f.getCallAllele(k)) {
+					agree[piece]++;
+				} else {
+					disagree[piece]++;
+				}
+			}
+			for(int t1=0;t1<nTouched;t1++) {
+				int p1 = touched[t1];
+				for(int t2=t1+1;t2<nTouched;t2++) {
+					int p2 = touched[t2];
+					long mecSame = Math.min(disagree[p1]+disagree[p2], agree[p1]+agree[p2]);
+					long mecFlip = Math.min(disagree[p1]+agree[p2], agree[p1]+disagree[p2]);
+					addEvidence(evidence, p1, p2, f.getMultiplicity()*(mecSame-mecFlip));
+				}
+			}
+			for(int t=0;t<nTouched;t++) {
+				agree[touched[t]] = 0;
+				disagree[touched[t]] = 0;
+			}
+		}
+	}
+	/**
+	 * Compares the calls of each piece within the overlap with the previous window with the calls of the
+	 * pieces of the previous window. Each position with the same allele supports the same orientation
+	 */
+	private void addOverlapsEvidence(Block b, char [] alleles, int [] pieces, List<Block> components, List<Integer> boundaries, Map<Long,long[]> evidence) {
+		for(int piece=0;piece<components.size();piece++) {
+			Block component = components.get(piece);
+			String compHap = component.getHaplotype();
+			int last = Math.min(boundaries.get(piece)-1, component.getLastPos());
+			for(int pos=component.getFirstPos();pos<=last;pos++) {
+				char call = compHap.charAt(pos-component.getFirstPos());
+				int relPos = pos-b.getFirstPos();
+				if(call == Fragment.NODATACHAR || pieces[relPos]<0) {
+					continue;
+				}
+				addEvidence(evidence, pieces[relPos], piece, (call == alleles[relPos])?-1:1);
+			}
+		}
+	}
+	private void addEvidence(Map<Long,long[]> evidence, int p1, int p2, long value) {
+		if(p1 == p2 || value == 0) {
+			return;
+		}
+		Long key = ((long)Math.min(p1, p2)<<32) | Math.max(p1, p2);
+		long [] current = evidence.get(key);
+		if(current == null) {
+			current = new long [1];
+			evidence.put(key, current);
+		}
+		current[0]+=value;
+	}
+	/**
+	 * Complements single pieces while the MEC of the block decreases
+	 * @return Haplotype after complementing pieces
+	 */
+	private String refineOrientations(Block b, String hap, int [] pieces, int nPieces) {
+		//Positions of each piece
+		int [] pieceOffsets = new int [nPieces+1];
+		for(int i=0;i<pieces.length;i++) {
+			if(pieces[i]>=0) {
+				pieceOffsets[pieces[i]+1]++;
+			}
+		}
+		for(int p=0;p<nPieces;p++) {
+			pieceOffsets[p+1]+=pieceOffsets[p];
+		}
+		int [] piecePositions = new int [pieceOffsets[nPieces]];
+		int [] next = Arrays.copyOf(pieceOffsets, nPieces);
+		for(int i=0;i<pieces.length;i++) {
+			if(pieces[i]>=0) {
+				piecePositions[next[pieces[i]]] = i;
+				next[pieces[i]]++;
+			}
+		}
+		MECEvaluator evaluator = new MECEvaluator(b);
+		int mec = evaluator.setHaplotype(hap);
+		boolean improved = true;
+		for(int pass=0;pass<MAX_REFINEMENT_PASSES && improved;pass++) {
+			improved = false;
+			for(int p=0;p<nPieces;p++) {
+				int newMEC = mec;
+				for(int k=pieceOffsets[p];k<pieceOffsets[p+1];k++) {
+					newMEC = evaluator.flipSNP(piecePositions[k]);
+				}
+				if(newMEC < mec) {
+					mec = newMEC;
+					improved = true;
+				} else {
+					for(int k=pieceOffsets[p];k<pieceOffsets[p+1];k++) {
+						evaluator.flipSNP(piecePositions[k]);
+					}
+				}
+			}
+		}
+		return evaluator.getHaplotype();
+	}
+	private static char complement(char call) {
+		return (call == Fragment.ALLELE1CHAR)?Fragment.ALLELE2CHAR:Fragment.ALLELE1CHAR;
+	}
+	/**
+	 * Joins pairs of pieces in decreasing order of absolute evidence keeping the orientations
+	 * of pieces already joined through other pairs
+	 * @return Pieces that should be complemented
+	 */
+	private boolean [] orientPieces(int nPieces, Map<Long,long[]> evidence) {
+		//Sorted by decreasing absolute evidence and then by pair of pieces
+		List<long[]> pairs = new ArrayList<long[]>(evidence.size());
+		for(Map.Entry<Long,long[]> entry:evidence.entrySet()) {
+			if(entry.getValue()[0]!=0) {
+				pairs.add(new long [] {entry.getKey(),entry.getValue()[0]});
+			}
+		}
+		Collections.sort(pairs, new PiecesPairComparator());
+		int [] parents = new int [nPieces];
+		boolean [] parities = new boolean [nPieces];
+		for(int i=0;i<nPieces;i++) {
+			parents[i] = i;
+		}
+		for(long [] pair:pairs) {
+			int p1 = (int)(pair[0]>>>32);
+			int p2 = (int)(pair[0] & 0xffffffffL);
+			int r1 = find(parents, parities, p1);
+			int r2 = find(parents, parities, p2);
+			if(r1 != r2) {
+				boolean flip = pair[1] > 0;
+				parents[r2] = r1;
+				parities[r2] = parities[p1] ^ parities[p2] ^ flip;
+			}
+		}
+		boolean [] flips = new boolean [nPieces];
+		for(int i=0;i<nPieces;i++) {
+			find(parents, parities, i);
+			flips[i] = parities[i];
+		}
+		return flips;
+	}
+	/**
+	 * Finds the root of the given piece compressing the path. After the call the parity of the piece
+	 * tells if it has the opposite orientation of the root
+	 */
+	private int find(int [] parents, boolean [] parities, int piece) {
+		int root = piece;
+		boolean parity = false;
+		while(parents[root]!=root) {
+			parity ^= parities[root];
+			root = parents[root];
+		}
+		while(piece != root) {
+			int next = parents[piece];
+			boolean nextParity = parity ^ parities[piece];
+			parents[piece] = root;
+			parities[piece] = parity;
+			piece = next;
+			parity = nextParity;
+		}
+		return root;
+	}
+}
+class PiecesPairComparator implements Comparator<long[]> {
+	@Override
+	public int compare(long[] pair1, long[] pair2) {
+		long e1 = Math.abs(pair1[1]);
+		long e2 = Math.abs(pair2[1]);
+		if(e1 != e2) {
+			return (e1 > e2)?-1:1;
+		}
+		if(pair1[0] != pair2[0]) {
+			return (pair1[0] < pair2[0])?-1:1;
+		}
+		return 0;
+	}
+}
+/**
+ * Phases the connected components formed by the calls of the fragments within a window
+ */
+class WindowPhasingTask extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+	private Block block;
+	private int first;
+	private int last;
+	private SIHAlgorithm algorithm;
+	private List<Block> components;
+	
+	public WindowPhasingTask(Block block, int first, int last, SIHAlgorithm algorithm) {
+		this.block = block;
+		this.first = first;
+		this.last = last;
+		this.algorithm = algorithm;
+	}
+	@Override
+	protected void compute() {
+		List<Fragment> fragments = new ArrayList<Fragment>();
+		for(Fragment f:block.getFragments(first, last)) {
+			Fragment subFragment = f.getSubFragment(first, last);
+			if(subFragment!=null) {
+				fragments.add(subFragment);
+			}
+		}
+		if(fragments.size()==0) {
+			components = new ArrayList<Block>();
+			return;
+		}
+		Collections.sort(fragments, new FragmentsComparator());
+		components = new BlocksBuilder().buildBlocks(new Block(fragments));
+		for(Block c:components) {
+			algorithm.buildHaplotype(c);
+		}
+	}
+	public int getFirst() {
+		return first;
+	}
+	public int getLast() {
+		return last;
+	}
+	/**
+	 * @return Phased connected components of the window sorted by first position
+	 */
+	public List<Block> getComponents() {
+		return components;
+	}
+}
@@ -32,6 +32,24 @@ public class Block {
 	private int phased=0;
 	private int calls=0;
 	private double hapScores [];
+	//Number of restarts used to phase the block. Zero if the algorithm does not use restarts
+	private int restarts=0;
+	//Number of windows phased independently and sum of their MEC before stitching. Zero if the block was phased as a whole
+	private int windows=0;
+	private int windowsMEC=0;
+	//Indexes for range queries. Built on demand
+	//Indexes of the fragments sorted by first position
+	private int [] startOrder;
+	private int [] sortedStarts;
+	//Last positions of the fragments in startOrder
+	private int [] sortedEnds;
+	//Interval tree implicit in the start order. Node (lo+hi)/2 is the root of the range [lo,hi)
+	//and stores the maximum last position of the fragments in the range
+	private int [] subtreeMaxEnds;
+	//Number of phased positions before each relative position
+	private int [] phasedPrefix;
+	//Calls by fragment and by SNP. Built on demand
+	private CallMatrix callMatrix;
 	
 	
 	public Block(List<Fragment> fragments) {
@@ -59,6 +77,7 @@ public class Block {
 	public void setHaplotype(String haplotype) {
 		assert haplotype.length() == this.length();
 		this.haplotype = haplotype;
+		phasedPrefix = null;
 		updateStatistics();
 	}
 	
@@ -74,27 +93,38 @@ public class Block {
 		hapScores = new double[haplotype.length()];
 		int [] countsGood = new int [haplotype.length()];
 		int [] countsTotal = new int [haplotype.length()];
-		Arrays.fill(countsGood, 0);
-		Arrays.fill(countsTotal, 0);
-		for(Fragment f:fragments) {
-			int nCalls = f.getnCalls();
-			calls+=nCalls;
-			int d1 = f.getHammingDistance(haplotype,firstPos);
-			int overlapping = f.getOverlappingCount(haplotype, firstPos);
-			int d2 = overlapping - d1;
+		char [] hap = haplotype.toCharArray();
+		CallMatrix matrix = getCallMatrix();
+		int [] rowOffsets = matrix.getRowOffsets();
+		int [] rowColumns = matrix.getRowColumns();
+		char [] rowAlleles = matrix.getRowAlleles();
+		int [] multiplicities = matrix.getMultiplicities();
+		for(int i=0;i<matrix.getNumRows();i++) {
+			int m = multiplicities[i];
+			calls+=m*(rowOffsets[i+1]-rowOffsets[i]);
+			int d1 = 0;
+			int overlap = 0;
+			for(int e=rowOffsets[i];e<rowOffsets[i+1];e++) {
+				char hapCall = hap[rowColumns[e]];
+				if(hapCall!=Fragment.NODATACHAR) {
+					overlap++;
+					if(rowAlleles[e]!=hapCall) {
+						d1++;
+					}
+				}
+			}
+			int d2 = overlap-d1;
 			int dMin = Math.min(d1, d2);
-			MEC+= dMin;
+			MEC+= m*dMin;
 			boolean complement = (dMin == d2);
-			String fcalls = f.getExtendedCalls();
-			for(int i=f.getFirstPos();i<=f.getLastPos();i++) {
-				int relPos = i-firstPos;
-				char hapCall = haplotype.charAt(relPos);
-				char call = fcalls.charAt(i-f.getFirstPos());
-				if(hapCall!=Fragment.NODATACHAR && call!=Fragment.NODATACHAR) {
-					if(complement == (call != hapCall)) {
-						countsGood[relPos]++;
+			for(int e=rowOffsets[i];e<rowOffsets[i+1];e++) {
+				int relPos = rowColumns[e];
+				char hapCall = hap[relPos];
+				if(hapCall!=Fragment.NODATACHAR) {
+					if(complement == (rowAlleles[e] != hapCall)) {
+						countsGood[relPos]+=m;
 					}
-					countsTotal[relPos]++;
+					countsTotal[relPos]+=m;
 				}
 			}
 		}
@@ -113,17 +143,57 @@ public class Block {
 		return phased;
 	}
 	public int getPhased(int first, int last) {
-		int answer = 0;
-		for(int i=first;i<=last;i++) {
-			if(haplotype.charAt(i-firstPos)!=Fragment.NODATACHAR) {
-				answer++;
+		if(last < first) {
+			return 0;
+		}
+		if(phasedPrefix == null) {
+			phasedPrefix = new int [haplotype.length()+1];
+			for(int i=0;i<haplotype.length();i++) {
+				phasedPrefix[i+1] = phasedPrefix[i];
+				if(haplotype.charAt(i)!=Fragment.NODATACHAR) {
+					phasedPrefix[i+1]++;
+				}
 			}
 		}
-		return answer;
+		return phasedPrefix[last-firstPos+1]-phasedPrefix[first-firstPos];
 	}
 	public int getCalls() {
 		return calls;
 	}
+	/**
+	 * @return Number of restarts used by the algorithm to phase this block. Zero if the algorithm does not use restarts
+	 */
+	public int getRestarts() {
+		return restarts;
+	}
+	public void setRestarts(int restarts) {
+		this.restarts = restarts;
+	}
+	/**
+	 * @return Number of windows phased independently to build the haplotype. Zero if the block was phased as a whole
+	 */
+	public int getWindows() {
+		return windows;
+	}
+	/**
+	 * @return Sum of the MEC of the windows before they were stitched
+	 */
+	public int getWindowsMEC() {
+		return windowsMEC;
+	}
+	public void setWindowsStatistics(int windows, int windowsMEC) {
+		this.windows = windows;
+		this.windowsMEC = windowsMEC;
+	}
+	/**
+	 * @return Calls of the fragments of this block by fragment and by SNP. The matrix is built on the first call
+	 */
+	public CallMatrix getCallMatrix() {
+		if(callMatrix == null) {
+			callMatrix = new CallMatrix(this);
+		}
+		return callMatrix;
+	}
 	/**
 	 * @return the fragments
 	 */
@@ -146,14 +216,92 @@ public class Block {
 		return lastPos-firstPos+1;
 	}
 	public List<Fragment> getFragments(int first,int last) {
-		List<Fragment> answer = new ArrayList<Fragment>();
-		for(Fragment f:fragments) {
-			if(f.getFirstPos()<=last && f.getLastPos()>=first) {
-				answer.add(f);
+		int [] indexes = getFragmentIndexes(first, last);
+		List<Fragment> answer = new ArrayList<Fragment>(indexes.length);
+		for(int i:indexes) {
+			answer.add(fragments.get(i));
+		}
+		return answer;
+	}
+	/**
+	 * @param first First position of the region
+	 * @param last Last position of the region
+	 * @return Indexes of the fragments overlapping the given region sorted by first position.
+	 * Fragments with the same first position keep the order of the list of fragments
+	 */
+	public int [] getFragmentIndexes(int first,int last) {
+		if(startOrder == null) {
+			buildFragmentsIndex();
+		}
+		int n = sortedStarts.length;
+		int [] answer = new int [collectOverlaps(0, n, first, last, null, 0)];
+		collectOverlaps(0, n, first, last, answer, 0);
+		return answer;
+	}
+	/**
+	 * Visits in order the nodes of the interval tree for the range [lo,hi) that overlap the given region
+	 * @param answer Array to store the indexes of the overlapping fragments. If null, fragments are only counted
+	 * @param n Number of fragments already found
+	 * @return Number of fragments found after visiting the range
+	 */
+	private int collectOverlaps(int lo, int hi, int first, int last, int [] answer, int n) {
+		while(lo < hi) {
+			int mid = (lo+hi)>>>1;
+			if(subtreeMaxEnds[mid] < first) {
+				return n;
 			}
+			n = collectOverlaps(lo, mid, first, last, answer, n);
+			if(sortedStarts[mid] > last) {
+				return n;
+			}
+			if(sortedEnds[mid] >= first) {
+				if(answer != null) {
+					answer[n] = startOrder[mid];
+				}
+				n++;
+			}
+			lo = mid+1;
+		}
+		return n;
+	}
+	private int buildSubtreeMaxEnds(int lo, int hi) {
+		if(lo >= hi) {
+			return Integer.MIN_VALUE;
 		}
+		int mid = (lo+hi)>>>1;
+		int answer = sortedEnds[mid];
+		answer = Math.max(answer, buildSubtreeMaxEnds(lo, mid));
+		answer = Math.max(answer, buildSubtreeMaxEnds(mid+1, hi));
+		subtreeMaxEnds[mid] = answer;
 		return answer;
 	}
+	private void buildFragmentsIndex() {
+		int n = fragments.size();
+		long [] keys = new long [n];
+		boolean sorted = true;
+		for(int i=0;i<n;i++) {
+			int start = fragments.get(i).getFirstPos();
+			keys[i] = ((long)start<<32) | i;
+			if(i>0 && keys[i] < keys[i-1]) {
+				sorted = false;
+			}
+		}
+		if(!sorted) {
+			Arrays.sort(keys);
+		}
+		int [] order = new int [n];
+		sortedStarts = new int [n];
+		sortedEnds = new int [n];
+		for(int k=0;k<n;k++) {
+			order[k] = (int)keys[k];
+			Fragment f = fragments.get(order[k]);
+			sortedStarts[k] = f.getFirstPos();
+			sortedEnds[k] = f.getLastPos();
+		}
+		subtreeMaxEnds = new int [n];
+		buildSubtreeMaxEnds(0, n);
+		startOrder = order;
+	}
 	/**
 	 * @return the hapScores
 	 */
@@ -21,119 +21,110 @@ package mpg.molgen.sih.model;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
 public class BlocksBuilder {
 	private int [] assignments;
 	private int lastBlock=0;
-	private List<Join>joins=new ArrayList<Join>(); 
+	//Disjoint sets of block ids. Ids start at 1 and 0 means unassigned
+	private int [] parents;
+	private int [] ranks;
+	//Block id assigned to each fragment
+	private int [] fragmentBlocks;
 	public List<Block> buildBlocks(Block bigBlock) {
 		fillAssignments(bigBlock);
-		joinBlocks();
 		return distributeFragments(bigBlock.getFragments());
 	}
 	private void fillAssignments(Block bigBlock) {
 		assignments = new int [bigBlock.getLastPos()-bigBlock.getFirstPos()+1];
 		Arrays.fill(assignments, 0);
 		List<Fragment> fragments = bigBlock.getFragments();
+		parents = new int [fragments.size()+1];
+		ranks = new int [fragments.size()+1];
+		fragmentBlocks = new int [fragments.size()];
 		int firstPos = bigBlock.getFirstPos();
-		for(Fragment f:fragments) {
+		for(int i=0;i<fragments.size();i++) {
+			Fragment f = fragments.get(i);
 			int fragBlock = 0;
-			String calls = f.getExtendedCalls();
-			int relPos = f.getFirstPos()-firstPos;
-			for(int k=0;k<calls.length();k++) {
-				if(calls.charAt(k)!=Fragment.NODATACHAR) {
-					int block = assignments[relPos+k];
-					if(block > 0) {
-						if(fragBlock == 0) {
-							fragBlock = block;
-						} else if(block > fragBlock) {
-							joins.add(new Join(block,fragBlock));
-						} else if(fragBlock > block) {
-							joins.add(new Join(fragBlock,block));
-							fragBlock = block;
-						}
+			int nCalls = f.getnCalls();
+			for(int k=0;k<nCalls;k++) {
+				int block = assignments[f.getCallPosition(k)-firstPos];
+				if(block > 0) {
+					if(fragBlock == 0) {
+						fragBlock = find(block);
+					} else {
+						fragBlock = union(fragBlock,block);
 					}
 				}
 			}
+			if(nCalls==0 && assignments[f.getFirstPos()-firstPos]>0) {
+				//Fragments without calls go to the block having a call at their first position
+				fragBlock = find(assignments[f.getFirstPos()-firstPos]);
+			}
 			if(fragBlock==0) {
 				lastBlock++;
 				fragBlock = lastBlock;
+				parents[fragBlock] = fragBlock;
 			}
-			for(int k=0;k<calls.length();k++) {
-				if(calls.charAt(k)!=Fragment.NODATACHAR) {
-					assignments[relPos+k] = fragBlock;
-				}
+			fragmentBlocks[i] = fragBlock;
+			for(int k=0;k<nCalls;k++) {
+				assignments[f.getCallPosition(k)-firstPos] = fragBlock;
 			}
 		}
-		
 	}
-	private void joinBlocks() {
-		Collections.sort(joins,new JoinComparator());
-		int lastGroup = 0;
-		int newGroup = 0; 
-		for(Join join:joins ) {
-			if(lastGroup != join.group1) {
-				newGroup = join.group1;
-			}
-			if(newGroup > join.group2) {
-				for(int j=0;j<assignments.length;j++) {
-					if(assignments[j]==newGroup) {
-						assignments[j] = join.group2;
-					}
-				}
-				newGroup = join.group2;
-			}
-			
-			lastGroup = join.group1;
+	private int find(int block) {
+		int root = block;
+		while(parents[root]!=root) {
+			root = parents[root];
 		}
+		//Path compression
+		while(parents[block]!=root) {
+			int next = parents[block];
+			parents[block] = root;
+			block = next;
+		}
+		return root;
 	}
-	private List<Block> distributeFragments(List<Fragment> fragments) {
-		List<List<Fragment>> distFragments = new ArrayList<List<Fragment>>(lastBlock);
-		for(int i=0;i<lastBlock;i++) {
-			distFragments.add(new ArrayList<Fragment>());
+	/**
+	 * Joins the sets of the given blocks
+	 * @param root Root of the first set
+	 * @param block Block in the second set
+	 * @return Root of the joined set
+	 */
+	private int union(int root, int block) {
+		int root2 = find(block);
+		if(root == root2) {
+			return root;
 		}
-		int firstPos = fragments.get(0).getFirstPos();
-		for(Fragment f:fragments) {
-			int pos = assignments[f.getFirstPos()-firstPos]-1;
-			distFragments.get(pos).add(f);
+		if(ranks[root] < ranks[root2]) {
+			parents[root] = root2;
+			return root2;
 		}
-		List<Block> blocks = new ArrayList<Block>();
-		for(List<Fragment> l:distFragments) {
-			if(l.size()>0) {
-				blocks.add(new Block(l));
-			}
+		parents[root2] = root;
+		if(ranks[root] == ranks[root2]) {
+			ranks[root]++;
 		}
-		return blocks;
+		return root;
 	}
-}
-class Join {
-	int group1;
-	int group2;
-	public Join(int group1, int group2) {
-		super();
-		this.group1 = group1;
-		this.group2 = group2;
-	}
-	public int getGroup1() {
-		return group1;
-	}
-	public int getGroup2() {
-		return group2;
-	}
-	
-	
-}
-class JoinComparator implements Comparator<Join> {
-
-	@Override
-	public int compare(Join j1, Join j2) {
-		if(j1.group1!=j2.group1) {
-			return j2.group1-j1.group1;
+	/**
+	 * Builds one block per disjoint set. Blocks are sorted by the first fragment of each set
+	 */
+	private List<Block> distributeFragments(List<Fragment> fragments) {
+		int [] compactIds = new int [lastBlock+1];
+		Arrays.fill(compactIds, -1);
+		List<List<Fragment>> distFragments = new ArrayList<List<Fragment>>();
+		for(int i=0;i<fragments.size();i++) {
+			int root = find(fragmentBlocks[i]);
+			if(compactIds[root]<0) {
+				compactIds[root] = distFragments.size();
+				distFragments.add(new ArrayList<Fragment>());
+			}
+			distFragments.get(compactIds[root]).add(fragments.get(i));
 		}
-		return j2.group2-j1.group2;
+		List<Block> blocks = new ArrayList<Block>(distFragments.size());
+		for(List<Fragment> l:distFragments) {
+			blocks.add(new Block(l));
+		}
+		return blocks;
 	}
-	
 }
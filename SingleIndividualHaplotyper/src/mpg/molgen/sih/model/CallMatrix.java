@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * SingleIndividualHaplotyper - Efficient heuristic algorithms for the SIH problem
+ * Copyright 2011 Jorge Duitama
+ *
+ * This file is part of SingleIndividualHaplotyper.
+ *
+ *     SingleIndividualHaplotyper is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     SingleIndividualHaplotyper is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with SingleIndividualHaplotyper.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package mpg.molgen.sih.model;
+
+import java.util.List;
+
+/**
+ * Calls of the fragments of a block in compressed sparse format. The row view lists the calls of each
+ * fragment by position and the column view lists the calls at each SNP by fragment index.
+ * Columns are indexed by position relative to the first position of the block
+ */
+public class CallMatrix {
+	private int nRows;
+	private int nColumns;
+	//Calls of row i are stored between rowOffsets[i] and rowOffsets[i+1]
+	private int [] rowOffsets;
+	private int [] rowColumns;
+	private char [] rowAlleles;
+	//Calls at column j are stored between columnOffsets[j] and columnOffsets[j+1]
+	private int [] columnOffsets;
+	private int [] columnRows;
+	private char [] columnAlleles;
+	private int [] multiplicities;
+	
+	public CallMatrix(Block b) {
+		List<Fragment> fragments = b.getFragments();
+		int firstPos = b.getFirstPos();
+		nRows = fragments.size();
+		nColumns = b.length();
+		rowOffsets = new int [nRows+1];
+		multiplicities = new int [nRows];
+		for(int i=0;i<nRows;i++) {
+			Fragment f = fragments.get(i);
+			rowOffsets[i+1] = rowOffsets[i]+f.getnCalls();
+			multiplicities[i] = f.getMultiplicity();
+		}
+		int totalCalls = rowOffsets[nRows];
+		rowColumns = new int [totalCalls];
+		rowAlleles = new char [totalCalls];
+		columnOffsets = new int [nColumns+1];
+		for(int i=0;i<nRows;i++) {
+			Fragment f = fragments.get(i);
+			int e = rowOffsets[i];
+			for(int k=0;k<f.getnCalls();k++) {
+				int j = f.getCallPosition(k)-firstPos;
+				rowColumns[e] = j;
+				rowAlleles[e] = f.getCallAllele(k);
+				columnOffsets[j+1]++;
+				e++;
+			}
+		}
+		for(int j=0;j<nColumns;j++) {
+			columnOffsets[j+1]+=columnOffsets[j];
+		}
+		//Rows are visited in order so each column is sorted by row
+		columnRows = new int [totalCalls];
+		columnAlleles = new char [totalCalls];
+		int [] next = new int [nColumns];
+		System.arraycopy(columnOffsets, 0, next, 0, nColumns);
+		for(int i=0;i<nRows;i++) {
+			for(int e=rowOffsets[i];e<rowOffsets[i+1];e++) {
+				int j = rowColumns[e];
+				columnRows[next[j]] = i;
+				columnAlleles[next[j]] = rowAlleles[e];
+				next[j]++;
+			}
+		}
+	}
+	/**
+	 * @return Number of fragments
+	 */
+	public int getNumRows() {
+		return nRows;
+	}
+	/**
+	 * @return Number of positions of the block
+	 */
+	public int getNumColumns() {
+		return nColumns;
+	}
+	public int getTotalCalls() {
+		return rowOffsets[nRows];
+	}
+	/**
+	 * @return Array of offsets. Calls of fragment i are stored between rowOffsets[i] and rowOffsets[i+1]
+	 */
+	public int [] getRowOffsets() {
+		return rowOffsets;
+	}
+	/**
+	 * @return Relative positions of the calls in the ranges given by getRowOffsets
+	 */
+	public int [] getRowColumns() {
+		return rowColumns;
+	}
+	/**
+	 * @return Alleles of the calls in the ranges given by getRowOffsets
+	 */
+	public char [] getRowAlleles() {
+		return rowAlleles;
+	}
+	/**
+	 * @return Array of offsets. Calls at relative position j are stored between columnOffsets[j] and columnOffsets[j+1]
+	 */
+	public int [] getColumnOffsets() {
+		return columnOffsets;
+	}
+	/**
+	 * @return Fragment indexes of the calls in the ranges given by getColumnOffsets
+	 */
+	public int [] getColumnRows() {
+		return columnRows;
+	}
+	/**
+	 * @return Alleles of the calls in the ranges given by getColumnOffsets
+	 */
+	public char [] getColumnAlleles() {
+		return columnAlleles;
+	}
+	/**
+	 * @return Multiplicity of each fragment
+	 */
+	public int [] getMultiplicities() {
+		return multiplicities;
+	}
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * SingleIndividualHaplotyper - Efficient heuristic algorithms for the SIH problem
+ * Copyright 2011 Jorge Duitama
+ *
+ * This file is part of SingleIndividualHaplotyper.
+ *
+ *     SingleIndividualHaplotyper is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     SingleIndividualHaplotyper is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with SingleIndividualHaplotyper.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package mpg.molgen.sih.model;
+
+/**
+ * Result of comparing a fragment against another fragment or a haplotype in a single pass.
+ * Instances are meant to be reused by callers to avoid allocations in inner loops
+ */
+public class DistanceCounts {
+	private boolean useQualityScores;
+	private int disagree=0;
+	private int overlap=0;
+	private double weightedDistance=0;
+
+	public DistanceCounts() {
+		this(false);
+	}
+	/**
+	 * @param useQualityScores true if the quality weighted sums should be calculated as well
+	 */
+	public DistanceCounts(boolean useQualityScores) {
+		super();
+		this.useQualityScores = useQualityScores;
+	}
+	void reset() {
+		disagree = 0;
+		overlap = 0;
+		weightedDistance = 0;
+	}
+	void set(int disagree, int overlap, double weightedDistance) {
+		this.disagree = disagree;
+		this.overlap = overlap;
+		this.weightedDistance = weightedDistance;
+	}
+	void add(int disagree, int overlap) {
+		this.disagree += disagree;
+		this.overlap += overlap;
+	}
+	void addWeighted(boolean disagreement, double weight) {
+		if(disagreement) {
+			weightedDistance += weight;
+		} else {
+			weightedDistance -= weight;
+		}
+	}
+	/**
+	 * @return the useQualityScores
+	 */
+	public boolean isUseQualityScores() {
+		return useQualityScores;
+	}
+	/**
+	 * @return Number of positions with calls in both sequences and different alleles
+	 */
+	public int getDisagree() {
+		return disagree;
+	}
+	/**
+	 * @return Number of positions with calls in both sequences and equal alleles
+	 */
+	public int getAgree() {
+		return overlap - disagree;
+	}
+	/**
+	 * @return Number of positions with calls in both sequences
+	 */
+	public int getOverlap() {
+		return overlap;
+	}
+	/**
+	 * @return Difference between disagreements and agreements. Same value as Fragment.getHamming2
+	 */
+	public int getHamming2() {
+		return disagree - getAgree();
+	}
+	/**
+	 * @return Quality weighted difference between disagreements and agreements. Same value as Fragment.getDistanceWithQuals
+	 */
+	public int getWeightedDistance() {
+		return (int)Math.round(weightedDistance);
+	}
+}
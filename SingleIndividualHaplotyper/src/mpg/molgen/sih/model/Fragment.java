@@ -19,17 +19,34 @@
  *******************************************************************************/
 package mpg.molgen.sih.model;
 
+import java.util.Arrays;
+
 public class Fragment {
 	private String id;
 	private int firstPos=0;
 	private int lastPos=0;
 	private int nCalls=0;
-	private String extendedCalls = null;
+	//Number of input fragments with the same calls represented by this fragment
+	private int multiplicity=1;
+	//Calls sorted by absolute position. Probabilities are null if the fragment does not have quality scores
+	private int [] callPositions;
+	private char [] callAlleles;
+	private double [] callProbabilities;
+	//Bit-packed calls aligned to absolute SNP positions. Bit p%64 of word p/64-firstWord
+	//is set in callsMask if the fragment has a call at p and in allelesMask if the call is ALLELE2CHAR.
+	//Masks are only built for dense fragments
+	private int firstWord=0;
+	private long [] callsMask;
+	private long [] allelesMask;
 	
-	private double [] extendedProbabilities;
 	public static final char ALLELE1CHAR = '0';
 	public static final char ALLELE2CHAR = '1';
 	public static final char NODATACHAR = '-';
+	/**
+	 * Fragments having less calls than this fraction of their length are stored in sparse format
+	 */
+	public static final double MIN_DENSE_CALLS_RATIO = 1.0/16;
+	private static final MaskKernel maskKernel = MaskKernel.getInstance();
 	public Fragment(String id, int firstPos, String extendedCalls) {
 		this (id,firstPos,extendedCalls,null);
 	}
@@ -38,14 +55,75 @@ public class Fragment {
 		this.id = id;
 		this.firstPos = firstPos;
 		this.lastPos = firstPos +extendedCalls.length()-1;
-		this.extendedCalls = extendedCalls;
 		nCalls = 0;
 		for(int i=0;i<extendedCalls.length();i++) {
 			if(extendedCalls.charAt(i)!=NODATACHAR) {
 				nCalls++;
 			}
 		}
-		this.extendedProbabilities = extendedProbabilities;
+		callPositions = new int [nCalls];
+		callAlleles = new char [nCalls];
+		int k=0;
+		for(int i=0;i<extendedCalls.length();i++) {
+			char call = extendedCalls.charAt(i);
+			if(call!=NODATACHAR) {
+				callPositions[k] = firstPos+i;
+				callAlleles[k] = call;
+				k++;
+			}
+		}
+		setExtendedProbabilities(extendedProbabilities);
+		if(nCalls >= MIN_DENSE_CALLS_RATIO*length()) {
+			buildMasks();
+		}
+	}
+	/**
+	 * Creates a fragment from its list of calls. The fragment is stored in sparse format
+	 * if its calls are spread over a region much larger than the number of calls
+	 * @param id Id of the fragment
+	 * @param callPositions Absolute positions of the calls in ascending order
+	 * @param callAlleles Alleles of the calls
+	 * @param callProbabilities Probabilities of the calls being correct. Can be null
+	 */
+	public Fragment(String id, int [] callPositions, char [] callAlleles, double [] callProbabilities) {
+		this(id, callPositions[0], callPositions[callPositions.length-1], callPositions, callAlleles, callProbabilities);
+	}
+	/**
+	 * Creates a fragment from its list of calls spanning the given region. The region can start before
+	 * the first call or end after the last call and the list of calls can be empty
+	 * @param id Id of the fragment
+	 * @param firstPos First absolute position covered by the fragment
+	 * @param lastPos Last absolute position covered by the fragment
+	 * @param callPositions Absolute positions of the calls in ascending order
+	 * @param callAlleles Alleles of the calls
+	 * @param callProbabilities Probabilities of the calls being correct. Can be null
+	 */
+	public Fragment(String id, int firstPos, int lastPos, int [] callPositions, char [] callAlleles, double [] callProbabilities) {
+		super();
+		this.id = id;
+		this.nCalls = callPositions.length;
+		this.firstPos = firstPos;
+		this.lastPos = lastPos;
+		this.callPositions = callPositions;
+		this.callAlleles = callAlleles;
+		this.callProbabilities = callProbabilities;
+		if(nCalls >= MIN_DENSE_CALLS_RATIO*length()) {
+			buildMasks();
+		}
+	}
+	private void buildMasks() {
+		firstWord = firstPos>>6;
+		int nWords = (lastPos>>6) - firstWord + 1;
+		callsMask = new long [nWords];
+		allelesMask = new long [nWords];
+		for(int k=0;k<nCalls;k++) {
+			int pos = callPositions[k];
+			long bit = 1L<<(pos&63);
+			callsMask[(pos>>6)-firstWord] |= bit;
+			if(callAlleles[k] != ALLELE1CHAR) {
+				allelesMask[(pos>>6)-firstWord] |= bit;
+			}
+		}
 	}
 	/**
 	 * @return the id
@@ -73,99 +151,264 @@ public class Fragment {
 	public int length() {
 		return lastPos - firstPos + 1;
 	}
-	
-	public int getDistanceWithQuals (Fragment f2) {
-		int relPos1 = Math.max(0, f2.getFirstPos()-firstPos);
-		int relPos2 = Math.max(0, firstPos-f2.getFirstPos());
-		String calls2 = f2.getExtendedCalls();
-		double [] extProbs2 = f2.getExtendedProbabilities();
-		double distance =0;
-		while(relPos1 <extendedCalls.length() && relPos2<calls2.length()) {
-			char c1 = extendedCalls.charAt(relPos1);
-			char c2 = calls2.charAt(relPos2);
-			if(c1!=NODATACHAR && c2!=NODATACHAR) {
-				double p1 = extendedProbabilities[relPos1];
-				double p2 = extProbs2[relPos2];
-				if(c1 != c2) {
-					distance+=(p1+p2)/2;
-				} else {
-					distance-=(p1+p2)/2;
-				}
+	/**
+	 * @return Number of fragments with exactly the same calls represented by this fragment
+	 */
+	public int getMultiplicity() {
+		return multiplicity;
+	}
+	/**
+	 * @param f2 Fragment to compare
+	 * @return true if both fragments have calls at the same positions with the same alleles
+	 */
+	public boolean hasSameCalls(Fragment f2) {
+		return firstPos == f2.firstPos && lastPos == f2.lastPos && nCalls == f2.nCalls && Arrays.equals(callPositions, f2.callPositions) && Arrays.equals(callAlleles, f2.callAlleles);
+	}
+	/**
+	 * @return Hash code of the calls consistent with hasSameCalls
+	 */
+	public int getCallsHashCode() {
+		return 31*Arrays.hashCode(callPositions)+Arrays.hashCode(callAlleles);
+	}
+	/**
+	 * Adds the fragments represented by the given duplicate to the multiplicity of this fragment.
+	 * Probabilities of the calls are averaged taking into account the multiplicity of both fragments
+	 * @param duplicate Fragment with the same calls as this fragment
+	 */
+	public void merge(Fragment duplicate) {
+		if(!hasSameCalls(duplicate)) {
+			throw new IllegalArgumentException("Fragment "+duplicate.getId()+" does not have the same calls as fragment "+id);
+		}
+		int total = multiplicity + duplicate.multiplicity;
+		if(callProbabilities!=null && duplicate.callProbabilities!=null) {
+			double [] probabilities = new double [nCalls];
+			for(int k=0;k<nCalls;k++) {
+				probabilities[k] = (callProbabilities[k]*multiplicity + duplicate.callProbabilities[k]*duplicate.multiplicity)/total;
 			}
-			relPos1++;
-			relPos2++;
+			callProbabilities = probabilities;
+		}
+		multiplicity = total;
+	}
+	/**
+	 * @param first First absolute position of the region
+	 * @param last Last absolute position of the region
+	 * @return Fragment with the calls of this fragment located within the given region keeping
+	 * the multiplicity, this fragment if all calls are located within the region, or null if no call is located within the region
+	 */
+	public Fragment getSubFragment(int first, int last) {
+		if(first<=firstPos && lastPos<=last) {
+			return this;
+		}
+		int k1 = getFirstCallIndex(first);
+		int k2 = getFirstCallIndex(last+1);
+		if(k1>=k2) {
+			return null;
+		}
+		double [] probabilities = null;
+		if(callProbabilities!=null) {
+			probabilities = Arrays.copyOfRange(callProbabilities, k1, k2);
 		}
-		return (int)Math.round(distance);
+		Fragment answer = new Fragment(id, Arrays.copyOfRange(callPositions, k1, k2), Arrays.copyOfRange(callAlleles, k1, k2), probabilities);
+		answer.multiplicity = multiplicity;
+		return answer;
+	}
+	/**
+	 * @return true if the fragment is stored as a list of calls without bit masks
+	 */
+	public boolean isSparse() {
+		return callsMask == null;
+	}
+	/**
+	 * @param k Index of the call from 0 to getnCalls()-1
+	 * @return Absolute position of the k-th call
+	 */
+	public int getCallPosition(int k) {
+		return callPositions[k];
+	}
+	/**
+	 * @param k Index of the call from 0 to getnCalls()-1
+	 * @return Allele of the k-th call
+	 */
+	public char getCallAllele(int k) {
+		return callAlleles[k];
+	}
+	/**
+	 * @param k Index of the call from 0 to getnCalls()-1
+	 * @return Probability of the k-th call being correct
+	 */
+	public double getCallProbability(int k) {
+		return callProbabilities[k];
+	}
+	/**
+	 * @return true if the calls of this fragment have probabilities calculated from quality scores
+	 */
+	public boolean hasCallProbabilities() {
+		return callProbabilities != null;
+	}
+	
+	public int getDistanceWithQuals (Fragment f2) {
+		DistanceCounts counts = new DistanceCounts(true);
+		compare(f2, counts);
+		return counts.getWeightedDistance();
 	}
 	
 	public int getHamming2(String sequence,int start) {
-		int relPos1 = Math.max(0, start-firstPos);
-		int relPos2 = Math.max(0, firstPos-start);
-		String calls = getExtendedCalls();
+		DistanceCounts counts = new DistanceCounts();
+		compare(sequence, start, counts);
+		return counts.getHamming2();
+	}
+	public int getHamming2(Fragment f2) {
+		DistanceCounts counts = new DistanceCounts();
+		compare(f2, counts);
+		return counts.getHamming2();
+	}
+	public int getHammingDistance(String sequence,int start) {
+		DistanceCounts counts = new DistanceCounts();
+		compare(sequence, start, counts);
+		return counts.getDisagree();
+	}
+	public int getHammingDistance(Fragment f2) {
+		DistanceCounts counts = new DistanceCounts();
+		compare(f2, counts);
+		return counts.getDisagree();
+	}
+	public int getOverlappingCount(Fragment f2) {
+		DistanceCounts counts = new DistanceCounts();
+		compare(f2, counts);
+		return counts.getOverlap();
+	}
+	public int getOverlappingCount(String sequence,int start) {
+		DistanceCounts counts = new DistanceCounts();
+		compare(sequence, start, counts);
+		return counts.getOverlap();
+	}
+	/**
+	 * Compares the calls of this fragment with the given sequence calculating disagreements,
+	 * agreements and overlap in a single pass. If the given counts use quality scores, the
+	 * probabilities of this fragment are used as weights
+	 * @param sequence Sequence to compare with. Positions without calls must have NODATACHAR
+	 * @param start Absolute position of the first character of the sequence
+	 * @param counts Object to store the results. Previous values are discarded
+	 */
+	public void compare(String sequence, int start, DistanceCounts counts) {
+		counts.reset();
+		boolean weighted = counts.isUseQualityScores();
+		int last = start+sequence.length()-1;
 		int disagree =0;
 		int total =0;
-		while(relPos1 <calls.length() && relPos2<sequence.length()) {
-			char c1 = calls.charAt(relPos1);
-			char c2 = sequence.charAt(relPos2);
-			if(c1!=NODATACHAR && c2!=NODATACHAR) {
-				if(c1 != c2) {
+		for(int k=getFirstCallIndex(start);k<nCalls;k++) {
+			int pos = callPositions[k];
+			if(pos>last) break;
+			char c2 = sequence.charAt(pos-start);
+			if(c2!=NODATACHAR) {
+				boolean disagreement = callAlleles[k] != c2;
+				if(disagreement) {
 					disagree++;
-				} 
+				}
 				total++;
+				if(weighted) {
+					counts.addWeighted(disagreement, callProbabilities[k]);
+				}
 			}
-			relPos1++;
-			relPos2++;
 		}
-		if(total > 0) {
-			return 2*disagree-total;
+		counts.add(disagree, total);
+	}
+	/**
+	 * Compares the calls of this fragment with the calls of the given fragment calculating
+	 * disagreements, agreements and overlap in a single pass. If the given counts use quality
+	 * scores, the average probability of both calls is used as weight
+	 * @param f2 Fragment to compare with
+	 * @param counts Object to store the results. Previous values are discarded
+	 */
+	public void compare(Fragment f2, DistanceCounts counts) {
+		counts.reset();
+		if(counts.isUseQualityScores()) {
+			compareCallLists(f2, counts);
+		} else if(!isSparse() && !f2.isSparse()) {
+			compareMasks(f2, counts);
+		} else if(isSparse() && !f2.isSparse()) {
+			compareCallsWithMasks(this, f2, counts);
+		} else if(!isSparse() && f2.isSparse()) {
+			compareCallsWithMasks(f2, this, counts);
+		} else {
+			compareCallLists(f2, counts);
 		}
-		return 0;
 	}
-	public int getHamming2(Fragment f2) {
-		return getHamming2(f2.getExtendedCalls(),f2.getFirstPos());
+	private void compareMasks(Fragment f2, DistanceCounts counts) {
+		int w1 = Math.max(firstWord, f2.firstWord);
+		int w2 = Math.min(firstWord+callsMask.length, f2.firstWord+f2.callsMask.length);
+		if(w1>=w2) {
+			return;
+		}
+		long answer = maskKernel.count(callsMask, allelesMask, w1-firstWord, f2.callsMask, f2.allelesMask, w1-f2.firstWord, w2-w1);
+		counts.add(MaskKernel.getDisagree(answer), MaskKernel.getOverlap(answer));
 	}
-	public int getHammingDistance(String sequence,int start) {
-		int relPos1 = Math.max(0, start-firstPos);
-		int relPos2 = Math.max(0, firstPos-start);
-		String calls = getExtendedCalls();
+	private static void compareCallsWithMasks(Fragment sparse, Fragment dense, DistanceCounts counts) {
 		int disagree =0;
-		while(relPos1 <calls.length() && relPos2<sequence.length()) {
-			char c1 = calls.charAt(relPos1);
-			char c2 = sequence.charAt(relPos2);
-			if(c1!=NODATACHAR && c2!=NODATACHAR) {
-				if(c1 != c2) {
+		int total =0;
+		for(int k=sparse.getFirstCallIndex(dense.firstPos);k<sparse.nCalls;k++) {
+			int pos = sparse.callPositions[k];
+			if(pos>dense.lastPos) break;
+			int w = (pos>>6)-dense.firstWord;
+			long bit = 1L<<(pos&63);
+			if((dense.callsMask[w] & bit)!=0) {
+				if(((dense.allelesMask[w] & bit)!=0) != (sparse.callAlleles[k] != ALLELE1CHAR)) {
 					disagree++;
-				} 
+				}
+				total++;
 			}
-			relPos1++;
-			relPos2++;
 		}
-		return disagree;
-	}
-	public int getHammingDistance(Fragment f2) {
-		return getHammingDistance(f2.getExtendedCalls(), f2.getFirstPos());
+		counts.add(disagree, total);
 	}
-	public int getOverlappingCount(Fragment f2) {
-		return getOverlappingCount(f2.getExtendedCalls(),f2.getFirstPos());
-	}
-	public int getOverlappingCount(String sequence,int start) {
-		int relPos1 = Math.max(0, start-firstPos);
-		int relPos2 = Math.max(0, firstPos-start);
-		String calls = getExtendedCalls();
-		int overlap =0;
-		while(relPos1 <calls.length() && relPos2<sequence.length()) {
-			char c1 = calls.charAt(relPos1);
-			char c2 = sequence.charAt(relPos2);
-			if(c1!=NODATACHAR && c2!=NODATACHAR) {
-				overlap++; 
+	private void compareCallLists(Fragment f2, DistanceCounts counts) {
+		boolean weighted = counts.isUseQualityScores();
+		int disagree =0;
+		int total =0;
+		int i = getFirstCallIndex(f2.firstPos);
+		int j = f2.getFirstCallIndex(firstPos);
+		while(i<nCalls && j<f2.nCalls) {
+			int pos1 = callPositions[i];
+			int pos2 = f2.callPositions[j];
+			if(pos1<pos2) {
+				i++;
+			} else if(pos1>pos2) {
+				j++;
+			} else {
+				boolean disagreement = callAlleles[i] != f2.callAlleles[j];
+				if(disagreement) {
+					disagree++;
+				}
+				total++;
+				if(weighted) {
+					counts.addWeighted(disagreement, (callProbabilities[i]+f2.callProbabilities[j])/2);
+				}
+				i++;
+				j++;
 			}
-			relPos1++;
-			relPos2++;
 		}
-		return overlap;
+		counts.add(disagree, total);
+	}
+	/**
+	 * @param pos Absolute position
+	 * @return Index of the first call located at a position greater or equal than pos
+	 */
+	private int getFirstCallIndex(int pos) {
+		if(pos<=firstPos) {
+			return 0;
+		}
+		int idx = Arrays.binarySearch(callPositions, pos);
+		if(idx<0) {
+			idx = -idx-1;
+		}
+		return idx;
 	}
 	public String getExtendedCalls() {
-		return extendedCalls;
+		char [] extendedCalls = new char [length()];
+		Arrays.fill(extendedCalls, NODATACHAR);
+		for(int k=0;k<nCalls;k++) {
+			extendedCalls[callPositions[k]-firstPos] = callAlleles[k];
+		}
+		return new String(extendedCalls);
 	}
 	
 	
@@ -173,18 +416,44 @@ public class Fragment {
 	 * @return the extendedProbabilities
 	 */
 	public double[] getExtendedProbabilities() {
+		if(callProbabilities == null) {
+			return null;
+		}
+		double [] extendedProbabilities = new double [length()];
+		Arrays.fill(extendedProbabilities, 0);
+		for(int k=0;k<nCalls;k++) {
+			extendedProbabilities[callPositions[k]-firstPos] = callProbabilities[k];
+		}
 		return extendedProbabilities;
 	}
 	/**
 	 * @param extendedProbabilities the extendedProbabilities to set
 	 */
 	public void setExtendedProbabilities(double[] extendedProbabilities) {
-		this.extendedProbabilities = extendedProbabilities;
+		if(extendedProbabilities == null) {
+			callProbabilities = null;
+			return;
+		}
+		callProbabilities = new double [nCalls];
+		for(int k=0;k<nCalls;k++) {
+			callProbabilities[k] = extendedProbabilities[callPositions[k]-firstPos];
+		}
 	}
 	public char getCall(int pos) {
-		int relPos = pos-firstPos;
-		if(relPos>=0 && relPos < extendedCalls.length()) {
-			return extendedCalls.charAt(relPos);
+		if(pos<firstPos || pos>lastPos) {
+			return NODATACHAR;
+		}
+		if(!isSparse()) {
+			int w = (pos>>6)-firstWord;
+			long bit = 1L<<(pos&63);
+			if((callsMask[w] & bit)==0) {
+				return NODATACHAR;
+			}
+			return ((allelesMask[w] & bit)!=0)?ALLELE2CHAR:ALLELE1CHAR;
+		}
+		int idx = Arrays.binarySearch(callPositions, pos);
+		if(idx>=0) {
+			return callAlleles[idx];
 		}
 		return NODATACHAR;
 	}
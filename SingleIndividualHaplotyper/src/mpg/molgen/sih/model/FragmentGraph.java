@@ -0,0 +1,533 @@
+/*******************************************************************************
+ * SingleIndividualHaplotyper - Efficient heuristic algorithms for the SIH problem
+ * Copyright 2011 Jorge Duitama
+ *
+ * This file is part of SingleIndividualHaplotyper.
+ *
+ *     SingleIndividualHaplotyper is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     SingleIndividualHaplotyper is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with SingleIndividualHaplotyper.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package mpg.molgen.sih.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Graph with one vertex per fragment and one edge per pair of overlapping fragments with non zero weight.
+ * Adjacency lists are stored in compressed sparse row format. Edges are also kept in the order
+ * they were found (sorted by first vertex and then by second vertex).
+ * Weights are multiplied by the multiplicity of both fragments
+ */
+public class FragmentGraph {
+	//Number of disagreements minus number of agreements
+	public static final int WEIGHT_HAMMING2 = 1;
+	//Distance weighted by the probabilities of the calls
+	public static final int WEIGHT_QUALS = 2;
+	//Number of disagreements
+	public static final int WEIGHT_DISAGREE = 3;
+	//Below this number of fragments edges are always built comparing pairs of fragments
+	private static final int MIN_FRAGMENTS_SWEEP = 32;
+	//Minimum number of fragments compared by each thread
+	private static final int MIN_FRAGMENTS_CHUNK = 256;
+	
+	private int nVertices;
+	private int nEdges;
+	private int [] edgeVertices1;
+	private int [] edgeVertices2;
+	private int [] edgeWeights;
+	//Neighbors of vertex v are stored between offsets[v] and offsets[v+1]
+	private int [] offsets;
+	private int [] neighbors;
+	private int [] weights;
+	//Index of the edge to each neighbor
+	private int [] adjacentEdges;
+	
+	/**
+	 * PRE: Fragments are sorted
+	 * @param fragments Fragments to include in the graph
+	 * @param weightType Type of weights of the edges. One of the WEIGHT constants
+	 */
+	public FragmentGraph(List<Fragment> fragments, int weightType) {
+		this(fragments, weightType, 1);
+	}
+	/**
+	 * PRE: Fragments are sorted
+	 * @param fragments Fragments to include in the graph
+	 * @param weightType Type of weights of the edges. One of the WEIGHT constants
+	 * @param numThreads Number of threads to compare fragments. If the graph is built within a ForkJoinPool,
+	 * comparisons are forked in that pool regardless of this value
+	 */
+	public FragmentGraph(List<Fragment> fragments, int weightType, int numThreads) {
+		nVertices = fragments.size();
+		//Long fragments overlap in span with many fragments sharing few calls with them.
+		//In that case it is cheaper to compare only fragments with calls at the same SNPs
+		int [] snpCounts = null;
+		long spanPairs = 0;
+		if(nVertices >= MIN_FRAGMENTS_SWEEP) {
+			spanPairs = countSpanOverlaps(fragments);
+		}
+		if(spanPairs > nVertices) {
+			snpCounts = countCallsBySNP(fragments);
+			long callPairs = 0;
+			for(int p=0;p<snpCounts.length-1;p++) {
+				long coverage = snpCounts[p+1];
+				callPairs += coverage*(coverage-1)/2;
+			}
+			if(callPairs + nVertices >= spanPairs) {
+				snpCounts = null;
+			}
+		}
+		EdgesBuilder builder = new EdgesBuilder(fragments, weightType, snpCounts);
+		buildEdges(builder, numThreads);
+		buildAdjacency();
+	}
+	/**
+	 * Compares the fragments in consecutive chunks. Chunks are processed concurrently if more than one
+	 * thread is available and then the edges of each chunk are appended in order, so the edges are the same
+	 * as if all fragments were processed by a single thread
+	 */
+	private void buildEdges(EdgesBuilder builder, int numThreads) {
+		int parallelism = numThreads;
+		if(ForkJoinTask.inForkJoinPool()) {
+			parallelism = ForkJoinTask.getPool().getParallelism();
+		}
+		int nChunks = Math.min(4*parallelism, nVertices/MIN_FRAGMENTS_CHUNK);
+		if(parallelism <= 1 || nChunks <= 1) {
+			EdgesChunk chunk = new EdgesChunk(builder, 0, nVertices);
+			chunk.compute();
+			nEdges = chunk.getNumEdges();
+			edgeVertices1 = chunk.getVertices1();
+			edgeVertices2 = chunk.getVertices2();
+			edgeWeights = chunk.getWeights();
+			return;
+		}
+		List<EdgesChunk> chunks = new ArrayList<EdgesChunk>(nChunks);
+		for(int c=0;c<nChunks;c++) {
+			int from = (int)((long)nVertices*c/nChunks);
+			int to = (int)((long)nVertices*(c+1)/nChunks);
+			chunks.add(new EdgesChunk(builder, from, to));
+		}
+		if(ForkJoinTask.inForkJoinPool()) {
+			ForkJoinTask.invokeAll(chunks);
+		} else {
+			ForkJoinPool pool = new ForkJoinPool(numThreads);
+			try {
+				for(EdgesChunk chunk:chunks) {
+					pool.execute(chunk);
+				}
+				for(EdgesChunk chunk:chunks) {
+					chunk.join();
+				}
+			} finally {
+				pool.shutdown();
+			}
+		}
+		nEdges = 0;
+		for(EdgesChunk chunk:chunks) {
+			nEdges+=chunk.getNumEdges();
+		}
+		edgeVertices1 = new int [nEdges];
+		edgeVertices2 = new int [nEdges];
+		edgeWeights = new int [nEdges];
+		int e = 0;
+		for(EdgesChunk chunk:chunks) {
+			int n = chunk.getNumEdges();
+			System.arraycopy(chunk.getVertices1(), 0, edgeVertices1, e, n);
+			System.arraycopy(chunk.getVertices2(), 0, edgeVertices2, e, n);
+			System.arraycopy(chunk.getWeights(), 0, edgeWeights, e, n);
+			e+=n;
+		}
+	}
+	/**
+	 * @return Number of pairs of fragments overlapping in span
+	 */
+	private static long countSpanOverlaps(List<Fragment> fragments) {
+		int n = fragments.size();
+		long answer = 0;
+		for(int i=0;i<n;i++) {
+			int last = fragments.get(i).getLastPos();
+			//First fragment starting after the end of fragment i
+			int lo = i+1;
+			int hi = n;
+			while(lo<hi) {
+				int mid = (lo+hi)>>>1;
+				if(fragments.get(mid).getFirstPos() <= last) {
+					lo = mid+1;
+				} else {
+					hi = mid;
+				}
+			}
+			answer+=lo-i-1;
+		}
+		return answer;
+	}
+	/**
+	 * @return Array with the number of calls at each SNP relative to the first fragment shifted by one position,
+	 * so it can be turned into offsets accumulating the counts
+	 */
+	private static int [] countCallsBySNP(List<Fragment> fragments) {
+		int firstPos = fragments.get(0).getFirstPos();
+		int lastPos = 0;
+		for(Fragment f:fragments) {
+			lastPos = Math.max(lastPos, f.getLastPos());
+		}
+		int [] answer = new int [lastPos-firstPos+2];
+		for(Fragment f:fragments) {
+			for(int k=0;k<f.getnCalls();k++) {
+				answer[f.getCallPosition(k)-firstPos+1]++;
+			}
+		}
+		return answer;
+	}
+	/**
+	 * @param counts Result of comparing two fragments
+	 * @param weightType Type of weight to calculate
+	 * @return Weight of an edge between the compared fragments
+	 */
+	public static int getWeight(DistanceCounts counts, int weightType) {
+		if(weightType == WEIGHT_QUALS) {
+			return counts.getWeightedDistance();
+		} else if (weightType == WEIGHT_DISAGREE) {
+			return counts.getDisagree();
+		}
+		return counts.getHamming2();
+	}
+	/**
+	 * Multiplies the weight of an edge by the multiplicities of its fragments. The product is calculated
+	 * as a long and saturated to the range of int, so large multiplicities can not flip the sign of the weight
+	 * @return Weight of the edge between the two fragments counting each pair of represented fragments
+	 */
+	public static int scaleWeight(int weight, Fragment f1, Fragment f2) {
+		long answer = (long)weight*f1.getMultiplicity()*f2.getMultiplicity();
+		if(answer > Integer.MAX_VALUE) {
+			return Integer.MAX_VALUE;
+		}
+		if(answer < -Integer.MAX_VALUE) {
+			return -Integer.MAX_VALUE;
+		}
+		return (int)answer;
+	}
+	private void buildAdjacency() {
+		offsets = new int [nVertices+1];
+		for(int e=0;e<nEdges;e++) {
+			offsets[edgeVertices1[e]+1]++;
+			offsets[edgeVertices2[e]+1]++;
+		}
+		for(int v=0;v<nVertices;v++) {
+			offsets[v+1]+=offsets[v];
+		}
+		neighbors = new int [2*nEdges];
+		weights = new int [2*nEdges];
+		adjacentEdges = new int [2*nEdges];
+		int [] next = Arrays.copyOf(offsets, nVertices);
+		//Edges are sorted by first vertex, so neighbors of each vertex are sorted
+		for(int e=0;e<nEdges;e++) {
+			int v1 = edgeVertices1[e];
+			int v2 = edgeVertices2[e];
+			neighbors[next[v1]] = v2;
+			weights[next[v1]] = edgeWeights[e];
+			adjacentEdges[next[v1]] = e;
+			next[v1]++;
+			neighbors[next[v2]] = v1;
+			weights[next[v2]] = edgeWeights[e];
+			adjacentEdges[next[v2]] = e;
+			next[v2]++;
+		}
+	}
+	public int getNumVertices() {
+		return nVertices;
+	}
+	public int getNumEdges() {
+		return nEdges;
+	}
+	/**
+	 * @param e Index of the edge
+	 * @return Vertex with the smaller index of the given edge
+	 */
+	public int getEdgeVertex1(int e) {
+		return edgeVertices1[e];
+	}
+	/**
+	 * @param e Index of the edge
+	 * @return Vertex with the larger index of the given edge
+	 */
+	public int getEdgeVertex2(int e) {
+		return edgeVertices2[e];
+	}
+	public int getEdgeWeight(int e) {
+		return edgeWeights[e];
+	}
+	/**
+	 * @return Array of offsets. Neighbors of vertex v are stored between offsets[v] and offsets[v+1]
+	 */
+	public int [] getOffsets() {
+		return offsets;
+	}
+	/**
+	 * @return Neighbors of all vertices in the ranges given by getOffsets
+	 */
+	public int [] getNeighbors() {
+		return neighbors;
+	}
+	/**
+	 * @return Weights of the edges to the neighbors returned by getNeighbors
+	 */
+	public int [] getWeights() {
+		return weights;
+	}
+	/**
+	 * @return Indexes of the edges to the neighbors returned by getNeighbors
+	 */
+	public int [] getAdjacentEdges() {
+		return adjacentEdges;
+	}
+	public int getDegree(int v) {
+		return offsets[v+1]-offsets[v];
+	}
+	/**
+	 * @param cut Partition of the vertices
+	 * @return Total weight of the edges crossing the given partition
+	 */
+	public long getCutWeight(boolean [] cut) {
+		long answer = 0;
+		for(int e=0;e<nEdges;e++) {
+			if(cut[edgeVertices1[e]]!=cut[edgeVertices2[e]]) {
+				answer+=edgeWeights[e];
+			}
+		}
+		return answer;
+	}
+	/**
+	 * @param cut Partition of the vertices
+	 * @param side Side of the partition
+	 * @return Total weight of the edges with both vertices in the given side of the partition
+	 */
+	public long getInternalWeight(boolean [] cut, boolean side) {
+		long answer = 0;
+		for(int e=0;e<nEdges;e++) {
+			if(cut[edgeVertices1[e]]==side && cut[edgeVertices2[e]]==side) {
+				answer+=edgeWeights[e];
+			}
+		}
+		return answer;
+	}
+}
+/**
+ * Data shared by the threads building the edges of a graph
+ */
+class EdgesBuilder {
+	private List<Fragment> fragments;
+	private int weightType;
+	private boolean weighted;
+	private int firstPos;
+	//Calls of the fragments indexed by SNP. Null if fragments are compared by pairs
+	private int [] snpOffsets;
+	private int [] snpFragments;
+	private char [] snpAlleles;
+	private double [] snpProbabilities;
+	//Index in the SNP arrays of each call of each fragment
+	private int [] callOffsets;
+	private int [] callEntries;
+	
+	/**
+	 * @param snpCounts Number of calls per SNP shifted by one position or null to compare fragments by pairs
+	 */
+	public EdgesBuilder(List<Fragment> fragments, int weightType, int [] snpCounts) {
+		this.fragments = fragments;
+		this.weightType = weightType;
+		this.weighted = weightType == FragmentGraph.WEIGHT_QUALS;
+		if(snpCounts!=null) {
+			buildSNPIndex(snpCounts);
+		}
+	}
+	private void buildSNPIndex(int [] snpCounts) {
+		int n = fragments.size();
+		firstPos = fragments.get(0).getFirstPos();
+		int nSNPs = snpCounts.length-1;
+		snpOffsets = snpCounts;
+		for(int p=0;p<nSNPs;p++) {
+			snpOffsets[p+1]+=snpOffsets[p];
+		}
+		int totalCalls = snpOffsets[nSNPs];
+		snpFragments = new int [totalCalls];
+		snpAlleles = new char [totalCalls];
+		if(weighted) {
+			snpProbabilities = new double [totalCalls];
+		}
+		callOffsets = new int [n+1];
+		callEntries = new int [totalCalls];
+		int [] next = Arrays.copyOf(snpOffsets, nSNPs);
+		//Fragments of each SNP are sorted by index
+		for(int i=0;i<n;i++) {
+			Fragment f = fragments.get(i);
+			callOffsets[i+1] = callOffsets[i]+f.getnCalls();
+			for(int k=0;k<f.getnCalls();k++) {
+				int p = f.getCallPosition(k)-firstPos;
+				snpFragments[next[p]] = i;
+				snpAlleles[next[p]] = f.getCallAllele(k);
+				if(weighted) {
+					snpProbabilities[next[p]] = f.getCallProbability(k);
+				}
+				callEntries[callOffsets[i]+k] = next[p];
+				next[p]++;
+			}
+		}
+	}
+	/**
+	 * Builds the edges between the fragments from first to last-1 and the following fragments
+	 */
+	public void buildEdges(int first, int last, EdgesChunk out) {
+		if(snpOffsets!=null) {
+			buildEdgesBySNP(first, last, out);
+		} else {
+			buildEdgesByPairs(first, last, out);
+		}
+	}
+	/**
+	 * Compares each fragment with the following fragments until they do not overlap in span
+	 */
+	private void buildEdgesByPairs(int first, int last, EdgesChunk out) {
+		int n = fragments.size();
+		DistanceCounts counts = new DistanceCounts(weighted);
+		for(int i=first;i<last;i++) {
+			Fragment f1 = fragments.get(i);
+			for(int j=i+1;j<n;j++) {
+				Fragment f2 = fragments.get(j);
+				if(f1.getLastPos() < f2.getFirstPos()) {
+					break;
+				}
+				f1.compare(f2, counts);
+				//Each pair of represented fragments contributes to the edge
+				int weight = FragmentGraph.scaleWeight(FragmentGraph.getWeight(counts, weightType), f1, f2);
+				if(weight!=0) {
+					out.addEdge(i, j, weight);
+				}
+			}
+		}
+	}
+	/**
+	 * Sweeps the SNPs accumulating the counts of each fragment against the following fragments having calls
+	 * at the same SNPs. The cost is proportional to the sum over SNPs of the squared coverage.
+	 * Counts are accumulated in the same order as Fragment.compare, so the weights are the same
+	 */
+	private void buildEdgesBySNP(int first, int last, EdgesChunk out) {
+		int n = fragments.size();
+		//Counts of the current fragment against the following fragments
+		int [] disagree = new int [n];
+		int [] overlap = new int [n];
+		double [] weightedDistance = weighted?new double [n]:null;
+		int [] touched = new int [n];
+		DistanceCounts counts = new DistanceCounts(weighted);
+		for(int i=first;i<last;i++) {
+			Fragment f1 = fragments.get(i);
+			int nTouched = 0;
+			for(int k=0;k<f1.getnCalls();k++) {
+				int p = f1.getCallPosition(k)-firstPos;
+				//Calls of the following fragments at the same SNP are stored after the call of fragment i
+				int own = callEntries[callOffsets[i]+k];
+				int end = snpOffsets[p+1];
+				char allele = snpAlleles[own];
+				for(int l=own+1;l<end;l++) {
+					int j = snpFragments[l];
+					if(overlap[j]==0) {
+						touched[nTouched] = j;
+						nTouched++;
+					}
+					boolean disagreement = allele != snpAlleles[l];
+					if(disagreement) {
+						disagree[j]++;
+					}
+					overlap[j]++;
+					if(weighted) {
+						double w = (snpProbabilities[own]+snpProbabilities[l])/2;
+						if(disagreement) {
+							weightedDistance[j] += w;
+						} else {
+							weightedDistance[j] -= w;
+						}
+					}
+				}
+			}
+			//Edges are added sorted by second vertex
+			Arrays.sort(touched, 0, nTouched);
+			for(int t=0;t<nTouched;t++) {
+				int j = touched[t];
+				counts.set(disagree[j], overlap[j], weighted?weightedDistance[j]:0);
+				int weight = FragmentGraph.scaleWeight(FragmentGraph.getWeight(counts, weightType), f1, fragments.get(j));
+				if(weight!=0) {
+					out.addEdge(i, j, weight);
+				}
+				disagree[j] = 0;
+				overlap[j] = 0;
+				if(weighted) {
+					weightedDistance[j] = 0;
+				}
+			}
+		}
+	}
+}
+/**
+ * Edges found comparing a range of fragments with the following fragments
+ */
+class EdgesChunk extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+	private EdgesBuilder builder;
+	private int first;
+	private int last;
+	private int nEdges = 0;
+	private int [] vertices1;
+	private int [] vertices2;
+	private int [] weights;
+	
+	public EdgesChunk(EdgesBuilder builder, int first, int last) {
+		this.builder = builder;
+		this.first = first;
+		this.last = last;
+		int capacity = 2*(last-first)+1;
+		vertices1 = new int [capacity];
+		vertices2 = new int [capacity];
+		weights = new int [capacity];
+	}
+	@Override
+	protected void compute() {
+		builder.buildEdges(first, last, this);
+	}
+	void addEdge(int v1, int v2, int weight) {
+		if(nEdges == weights.length) {
+			int capacity = 2*nEdges;
+			vertices1 = Arrays.copyOf(vertices1, capacity);
+			vertices2 = Arrays.copyOf(vertices2, capacity);
+			weights = Arrays.copyOf(weights, capacity);
+		}
+		vertices1[nEdges] = v1;
+		vertices2[nEdges] = v2;
+		weights[nEdges] = weight;
+		nEdges++;
+	}
+	public int getNumEdges() {
+		return nEdges;
+	}
+	public int [] getVertices1() {
+		return vertices1;
+	}
+	public int [] getVertices2() {
+		return vertices2;
+	}
+	public int [] getWeights() {
+		return weights;
+	}
+}
@@ -24,9 +24,10 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 
 public class FragmentsFileHandler {
@@ -36,56 +37,113 @@ public class FragmentsFileHandler {
 		BufferedReader in = new BufferedReader(new InputStreamReader(fis));
 		String line=in.readLine();
 		for(int i=0;line!=null;i++) {
-			String [] items = line.split(" |\t");
-			if(items.length > 2) {
-				try {
-					StringBuilder calls = new StringBuilder();
-					String qualityScores = null;
-					int startPos = Integer.parseInt(items[2])-1;
-					int pos = startPos;
-					for(int j=2;j<items.length;j+=2) {
-						//Assumes that start positions are one based
-						if(j<items.length-1) {
-							int nextStart = Integer.parseInt(items[j])-1;
-							while(pos<nextStart) {
-								calls.append(Fragment.NODATACHAR);
-								pos++;
-							}
-							calls.append(items[j+1]);
-							pos+=items[j+1].length();
-						} else {
-							qualityScores = items[j];
-						}
-					}
-					int k=0;
-					double [] extendedProbabilities = null;
-					Fragment f;
-					if(qualityScores!=null) {
-						extendedProbabilities = new double[calls.length()];
-						Arrays.fill(extendedProbabilities, 0);
-						for(int j=0;j<calls.length();j++) {
-							if(calls.charAt(j)!=Fragment.NODATACHAR) {
-								extendedProbabilities [j] = calculateProbability(qualityScores.charAt(k));
-								k++;
-							}
-						}
-						
-						f = new Fragment(items[1],startPos, calls.toString(),extendedProbabilities);
-					} else {
-						f = new Fragment(items[1],startPos, calls.toString());
-					}
-					fragments.add(f);
-				} catch(Exception e) {
-					throw new IOException("Error reading line: "+ line+ " of file "+filename,e);
-				}
+			Fragment f = parseFragment(line, filename);
+			if(f!=null) {
+				fragments.add(f);
 			}
-			
 			line=in.readLine();
 		}
 		fis.close();
 		Collections.sort(fragments,new FragmentsComparator());
 		return fragments;
 	}
+	/**
+	 * Parses one line of a fragments file. The fragment covers the region from the start of the first
+	 * segment to the end of the last segment, even if the segments start or end without calls
+	 * @return Fragment described in the line or null if the line does not describe any segment
+	 */
+	Fragment parseFragment(String line, String filename) throws IOException {
+		String [] items = line.split(" |\t");
+		if(items.length > 2) {
+			try {
+				String qualityScores = null;
+				if(items.length%2==1) {
+					qualityScores = items[items.length-1];
+				}
+				int nCalls = 0;
+				for(int j=3;j<items.length;j+=2) {
+					nCalls+=countCalls(items[j]);
+				}
+				int [] callPositions = new int [nCalls];
+				char [] callAlleles = new char [nCalls];
+				double [] callProbabilities = null;
+				if(qualityScores!=null) {
+					callProbabilities = new double [nCalls];
+				}
+				int k=0;
+				//Assumes that start positions are one based
+				int firstPos = Integer.parseInt(items[2])-1;
+				int pos = firstPos;
+				for(int j=2;j<items.length-1;j+=2) {
+					pos = Math.max(pos, Integer.parseInt(items[j])-1);
+					String segment = items[j+1];
+					for(int l=0;l<segment.length();l++) {
+						char call = segment.charAt(l);
+						if(call!=Fragment.NODATACHAR) {
+							callPositions[k] = pos;
+							callAlleles[k] = call;
+							if(callProbabilities!=null) {
+								callProbabilities[k] = calculateProbability(qualityScores.charAt(k));
+							}
+							k++;
+						}
+						pos++;
+					}
+				}
+				//The fragment is stored in sparse format if calls are spread over a long region
+				return new Fragment(items[1], firstPos, pos-1, callPositions, callAlleles, callProbabilities);
+			} catch(Exception e) {
+				throw new IOException("Error reading line: "+ line+ " of file "+filename,e);
+			}
+		}
+		return null;
+	}
+	/**
+	 * Merges fragments with exactly the same calls into a single fragment whose multiplicity
+	 * is the number of merged fragments
+	 * @param fragments Fragments sorted by first position
+	 * @return List of distinct fragments keeping the order of the first occurrence of each fragment
+	 */
+	public List<Fragment> collapseDuplicates(List<Fragment> fragments) {
+		List<Fragment> answer = new ArrayList<Fragment>();
+		//Duplicates have the same first position. Only fragments starting at the current position are kept
+		Map<Integer,List<Fragment>> distinct = new HashMap<Integer, List<Fragment>>();
+		int currentPos = -1;
+		for(Fragment f:fragments) {
+			if(f.getFirstPos()!=currentPos) {
+				distinct.clear();
+				currentPos = f.getFirstPos();
+			}
+			Integer key = f.getCallsHashCode();
+			List<Fragment> candidates = distinct.get(key);
+			if(candidates == null) {
+				candidates = new ArrayList<Fragment>(1);
+				distinct.put(key, candidates);
+			}
+			boolean merged = false;
+			for(Fragment c:candidates) {
+				if(c.hasSameCalls(f)) {
+					c.merge(f);
+					merged = true;
+					break;
+				}
+			}
+			if(!merged) {
+				candidates.add(f);
+				answer.add(f);
+			}
+		}
+		return answer;
+	}
+	private int countCalls(String segment) {
+		int answer = 0;
+		for(int i=0;i<segment.length();i++) {
+			if(segment.charAt(i)!=Fragment.NODATACHAR) {
+				answer++;
+			}
+		}
+		return answer;
+	}
 	private double calculateProbability(char qual) {
 		double score = (double)(qual -33);
 		return 1 - Math.pow(10, -score /10);
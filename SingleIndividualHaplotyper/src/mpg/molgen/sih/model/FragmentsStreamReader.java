@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * SingleIndividualHaplotyper - Efficient heuristic algorithms for the SIH problem
+ * Copyright 2011 Jorge Duitama
+ *
+ * This file is part of SingleIndividualHaplotyper.
+ *
+ *     SingleIndividualHaplotyper is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     SingleIndividualHaplotyper is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with SingleIndividualHaplotyper.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package mpg.molgen.sih.model;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * Reads fragments one at a time from a fragments file sorted by first position.
+ * Used to build blocks while the file is still being read
+ */
+public class FragmentsStreamReader {
+	private String filename;
+	private BufferedReader in;
+	private FragmentsFileHandler handler = new FragmentsFileHandler();
+	private int lastFirstPos = -1;
+	private int lineNumber = 0;
+	
+	public FragmentsStreamReader(String filename) throws IOException {
+		this.filename = filename;
+		in = new BufferedReader(new InputStreamReader(new FileInputStream(filename)));
+	}
+	/**
+	 * @return Next fragment in the file or null if the end of the file was reached
+	 * @throws IOException If the file can not be read or fragments are not sorted by first position
+	 */
+	public Fragment nextFragment() throws IOException {
+		String line=in.readLine();
+		while(line!=null) {
+			lineNumber++;
+			Fragment f = handler.parseFragment(line, filename);
+			if(f!=null) {
+				if(f.getFirstPos()<lastFirstPos) {
+					throw new IOException("Fragments in file "+filename+" are not sorted by first position. Line: "+lineNumber);
+				}
+				lastFirstPos = f.getFirstPos();
+				return f;
+			}
+			line=in.readLine();
+		}
+		return null;
+	}
+	public void close() throws IOException {
+		in.close();
+	}
+}
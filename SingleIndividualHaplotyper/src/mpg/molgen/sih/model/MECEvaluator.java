@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * SingleIndividualHaplotyper - Efficient heuristic algorithms for the SIH problem
+ * Copyright 2011 Jorge Duitama
+ *
+ * This file is part of SingleIndividualHaplotyper.
+ *
+ *     SingleIndividualHaplotyper is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     SingleIndividualHaplotyper is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with SingleIndividualHaplotyper.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package mpg.molgen.sih.model;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the distances of each fragment of a block to a haplotype and its complement.
+ * Changes in single SNPs or in the assignment of single fragments update only the fragments involved,
+ * so the MEC of the current haplotype is available without scoring every fragment again.
+ * Distances are counted as in Fragment.compare and the MEC is weighted by the multiplicity
+ * of the fragments as in Block.getMEC
+ */
+public class MECEvaluator {
+	private Block block;
+	private char [] haplotype;
+	//Calls of the fragments indexed by relative position of the SNP. Shared with the call matrix of the block
+	private int [] snpOffsets;
+	private int [] snpFragments;
+	private char [] snpAlleles;
+	private int [] multiplicities;
+	//Disagreements with the haplotype and with its complement
+	private int [] distanceHap1;
+	private int [] distanceHap2;
+	//True for fragments assigned to the complement of the haplotype
+	private boolean [] assignments;
+	private int MEC = 0;
+	private int assignedMEC = 0;
+	
+	public MECEvaluator(Block b) {
+		this.block = b;
+		haplotype = new char [b.length()];
+		Arrays.fill(haplotype, Fragment.NODATACHAR);
+		int nFragments = b.getFragments().size();
+		distanceHap1 = new int [nFragments];
+		distanceHap2 = new int [nFragments];
+		assignments = new boolean [nFragments];
+		CallMatrix matrix = b.getCallMatrix();
+		snpOffsets = matrix.getColumnOffsets();
+		snpFragments = matrix.getColumnRows();
+		snpAlleles = matrix.getColumnAlleles();
+		multiplicities = matrix.getMultiplicities();
+	}
+	/**
+	 * Updates the distances to the given haplotype. Only SNPs that differ from the current haplotype are processed
+	 * @param hap New haplotype for the block
+	 * @return MEC of the new haplotype
+	 */
+	public int setHaplotype(String hap) {
+		for(int j=0;j<haplotype.length;j++) {
+			char c = hap.charAt(j);
+			if(c!=haplotype[j]) {
+				setSNP(j, c);
+			}
+		}
+		return MEC;
+	}
+	/**
+	 * Changes one SNP of the haplotype
+	 * @param relPos Position of the SNP relative to the first position of the block
+	 * @param allele New allele. It can be Fragment.NODATACHAR to leave the SNP unphased
+	 * @return MEC after the change
+	 */
+	public int setSNP(int relPos, char allele) {
+		char old = haplotype[relPos];
+		if(old == allele) {
+			return MEC;
+		}
+		for(int k=snpOffsets[relPos];k<snpOffsets[relPos+1];k++) {
+			int i = snpFragments[k];
+			char call = snpAlleles[k];
+			removeCosts(i);
+			if(old != Fragment.NODATACHAR) {
+				if(call != old) {
+					distanceHap1[i]--;
+				} else {
+					distanceHap2[i]--;
+				}
+			}
+			if(allele != Fragment.NODATACHAR) {
+				if(call != allele) {
+					distanceHap1[i]++;
+				} else {
+					distanceHap2[i]++;
+				}
+			}
+			addCosts(i);
+		}
+		haplotype[relPos] = allele;
+		return MEC;
+	}
+	/**
+	 * Switches the alleles of one phased SNP
+	 * @param relPos Position of the SNP relative to the first position of the block
+	 * @return MEC after the change
+	 */
+	public int flipSNP(int relPos) {
+		char c = haplotype[relPos];
+		if(c == Fragment.ALLELE1CHAR) {
+			return setSNP(relPos, Fragment.ALLELE2CHAR);
+		} else if(c != Fragment.NODATACHAR) {
+			return setSNP(relPos, Fragment.ALLELE1CHAR);
+		}
+		return MEC;
+	}
+	/**
+	 * Assigns a fragment to the haplotype or to its complement
+	 * @param i Index of the fragment in the block
+	 * @param complement true to assign the fragment to the complement of the haplotype
+	 * @return MEC of the current assignments
+	 */
+	public int setAssignment(int i, boolean complement) {
+		if(assignments[i]!=complement) {
+			removeCosts(i);
+			assignments[i] = complement;
+			addCosts(i);
+		}
+		return assignedMEC;
+	}
+	/**
+	 * Changes the haplotype assigned to one fragment
+	 * @param i Index of the fragment in the block
+	 * @return MEC of the current assignments
+	 */
+	public int flipFragment(int i) {
+		return setAssignment(i, !assignments[i]);
+	}
+	private void removeCosts(int i) {
+		MEC-=multiplicities[i]*Math.min(distanceHap1[i], distanceHap2[i]);
+		assignedMEC-=multiplicities[i]*(assignments[i]?distanceHap2[i]:distanceHap1[i]);
+	}
+	private void addCosts(int i) {
+		MEC+=multiplicities[i]*Math.min(distanceHap1[i], distanceHap2[i]);
+		assignedMEC+=multiplicities[i]*(assignments[i]?distanceHap2[i]:distanceHap1[i]);
+	}
+	/**
+	 * @return MEC of the current haplotype assigning each fragment to the closest haplotype
+	 */
+	public int getMEC() {
+		return MEC;
+	}
+	/**
+	 * @return MEC of the current haplotype with the current assignments of fragments
+	 */
+	public int getAssignedMEC() {
+		return assignedMEC;
+	}
+	/**
+	 * @param i Index of the fragment in the block
+	 * @return Number of calls of the fragment that disagree with the haplotype
+	 */
+	public int getDistanceHap1(int i) {
+		return distanceHap1[i];
+	}
+	/**
+	 * @param i Index of the fragment in the block
+	 * @return Number of calls of the fragment that disagree with the complement of the haplotype
+	 */
+	public int getDistanceHap2(int i) {
+		return distanceHap2[i];
+	}
+	public boolean isAssignedToComplement(int i) {
+		return assignments[i];
+	}
+	public String getHaplotype() {
+		return new String(haplotype);
+	}
+	public Block getBlock() {
+		return block;
+	}
+}
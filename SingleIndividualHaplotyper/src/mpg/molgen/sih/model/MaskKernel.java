@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * SingleIndividualHaplotyper - Efficient heuristic algorithms for the SIH problem
+ * Copyright 2011 Jorge Duitama
+ *
+ * This file is part of SingleIndividualHaplotyper.
+ *
+ *     SingleIndividualHaplotyper is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     SingleIndividualHaplotyper is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with SingleIndividualHaplotyper.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package mpg.molgen.sih.model;
+
+/**
+ * Scalar kernel counting overlap and disagreements between the bit-packed calls of two
+ * dense fragments. If the vectorized kernel was compiled (see the vector target of the makefile)
+ * and the module jdk.incubator.vector is available at runtime, getInstance returns it instead
+ */
+public class MaskKernel {
+	public static final String VECTOR_KERNEL_CLASS = "mpg.molgen.sih.model.VectorMaskKernel";
+	private static final MaskKernel instance = loadKernel();
+
+	public static MaskKernel getInstance() {
+		return instance;
+	}
+	private static MaskKernel loadKernel() {
+		try {
+			return (MaskKernel)Class.forName(VECTOR_KERNEL_CLASS).getDeclaredConstructor().newInstance();
+		} catch (Throwable e) {
+			//Vector kernel not compiled or module jdk.incubator.vector not available
+			return new MaskKernel();
+		}
+	}
+	/**
+	 * Compares nWords words of the masks of two fragments
+	 * @param calls1 Calls mask of the first fragment
+	 * @param alleles1 Alleles mask of the first fragment
+	 * @param offset1 First word to compare in the masks of the first fragment
+	 * @param calls2 Calls mask of the second fragment
+	 * @param alleles2 Alleles mask of the second fragment
+	 * @param offset2 First word to compare in the masks of the second fragment
+	 * @param nWords Number of words to compare
+	 * @return Number of disagreements in the upper 32 bits and number of overlapping calls in the lower 32 bits
+	 */
+	public long count(long [] calls1, long [] alleles1, int offset1, long [] calls2, long [] alleles2, int offset2, int nWords) {
+		int disagree =0;
+		int total =0;
+		for(int i=0;i<nWords;i++) {
+			long common = calls1[offset1+i] & calls2[offset2+i];
+			total += Long.bitCount(common);
+			disagree += Long.bitCount(common & (alleles1[offset1+i] ^ alleles2[offset2+i]));
+		}
+		return pack(disagree,total);
+	}
+	protected static long pack(int disagree, int total) {
+		return ((long)disagree<<32) | total;
+	}
+	public static int getDisagree(long counts) {
+		return (int)(counts>>>32);
+	}
+	public static int getOverlap(long counts) {
+		return (int)counts;
+	}
+	/**
+	 * @return Minimum number of words for which this kernel is used. Shorter comparisons go to the scalar loop
+	 */
+	public int getMinWords() {
+		return 0;
+	}
+	public String getName() {
+		return "scalar";
+	}
+}
@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * SingleIndividualHaplotyper - Efficient heuristic algorithms for the SIH problem
+ * Copyright 2011 Jorge Duitama
+ *
+ * This file is part of SingleIndividualHaplotyper.
+ *
+ *     SingleIndividualHaplotyper is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     SingleIndividualHaplotyper is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with SingleIndividualHaplotyper.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package mpg.molgen.sih.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the same blocks as BlocksBuilder while fragments are read. Because fragments are sorted
+ * by first position, a block can not grow once the first position of the next fragment
+ * is larger than the last position of the block. Only the open blocks are kept in memory.
+ * Blocks are returned in the same order as BlocksBuilder
+ */
+public class StreamingBlocksBuilder {
+	private FragmentsStreamReader reader;
+	//Open block containing each position called by the fragments of open blocks
+	private Map<Integer, OpenBlock> assignments = new HashMap<Integer, OpenBlock>();
+	//Open blocks in creation order. Merged blocks stay until their set is returned
+	private LinkedList<OpenBlock> openBlocks = new LinkedList<OpenBlock>();
+	private Fragment nextFragment;
+	private int fragmentIndex = 0;
+	
+	public StreamingBlocksBuilder(FragmentsStreamReader reader) throws IOException {
+		this.reader = reader;
+		nextFragment = reader.nextFragment();
+	}
+	/**
+	 * @return Next closed block or null if all fragments were already distributed
+	 * @throws IOException If fragments can not be read
+	 */
+	public Block nextBlock() throws IOException {
+		while(true) {
+			int currentPos = Integer.MAX_VALUE;
+			if(nextFragment!=null) {
+				currentPos = nextFragment.getFirstPos();
+			}
+			Block b = pollClosedBlock(currentPos);
+			if(b!=null) {
+				return b;
+			}
+			if(nextFragment==null) {
+				return null;
+			}
+			addFragment(nextFragment);
+			nextFragment = reader.nextFragment();
+		}
+	}
+	private void addFragment(Fragment f) {
+		OpenBlock fragBlock = null;
+		int nCalls = f.getnCalls();
+		for(int k=0;k<nCalls;k++) {
+			OpenBlock block = assignments.get(f.getCallPosition(k));
+			if(block!=null) {
+				if(fragBlock == null) {
+					fragBlock = block.find();
+				} else {
+					fragBlock = fragBlock.union(block.find());
+				}
+			}
+		}
+		if(nCalls==0 && assignments.containsKey(f.getFirstPos())) {
+			//Fragments without calls go to the block having a call at their first position
+			fragBlock = assignments.get(f.getFirstPos()).find();
+		}
+		if(fragBlock == null) {
+			fragBlock = new OpenBlock();
+			openBlocks.add(fragBlock);
+		}
+		fragBlock.add(f, fragmentIndex);
+		fragmentIndex++;
+		for(int k=0;k<nCalls;k++) {
+			assignments.put(f.getCallPosition(k), fragBlock);
+		}
+	}
+	/**
+	 * Removes from the open blocks the oldest block if it can not grow anymore
+	 * @param currentPos First position of the next fragment
+	 * @return Block that can not grow anymore or null if the oldest block is still open
+	 */
+	private Block pollClosedBlock(int currentPos) {
+		while(openBlocks.size()>0) {
+			OpenBlock root = openBlocks.getFirst().find();
+			if(root.returned) {
+				//The set was returned from an older member
+				openBlocks.removeFirst();
+			} else if(root.maxLastPos < currentPos) {
+				openBlocks.removeFirst();
+				root.returned = true;
+				for(Fragment f:root.fragments) {
+					int nCalls = f.getnCalls();
+					for(int k=0;k<nCalls;k++) {
+						assignments.remove(f.getCallPosition(k));
+					}
+				}
+				return new Block(root.getSortedFragments());
+			} else {
+				return null;
+			}
+		}
+		return null;
+	}
+}
+/**
+ * Set of fragments in a disjoint-set forest of open blocks.
+ * Only roots keep fragments
+ */
+class OpenBlock {
+	OpenBlock parent = this;
+	int rank = 0;
+	int maxLastPos = -1;
+	boolean returned = false;
+	//Sets are merged appending fragments. True if fragments are still in input order
+	boolean sorted = true;
+	List<Fragment> fragments = new ArrayList<Fragment>();
+	//Input order of the fragments, used to sort the fragments after joining sets
+	List<Integer> indexes = new ArrayList<Integer>();
+	
+	OpenBlock find() {
+		OpenBlock root = this;
+		while(root.parent!=root) {
+			root = root.parent;
+		}
+		OpenBlock block = this;
+		while(block.parent!=root) {
+			OpenBlock next = block.parent;
+			block.parent = root;
+			block = next;
+		}
+		return root;
+	}
+	void add(Fragment f, int index) {
+		fragments.add(f);
+		indexes.add(index);
+		maxLastPos = Math.max(maxLastPos, f.getLastPos());
+	}
+	/**
+	 * Joins this root with another root
+	 * @return Root of the joined set
+	 */
+	OpenBlock union(OpenBlock root2) {
+		if(this == root2) {
+			return this;
+		}
+		OpenBlock root = this;
+		if(rank < root2.rank) {
+			root = root2;
+			root2 = this;
+		} else if(rank == root2.rank) {
+			rank++;
+		}
+		root2.parent = root;
+		root.merge(root2);
+		return root;
+	}
+	private void merge(OpenBlock b2) {
+		//The smaller list is appended to the larger one
+		if(fragments.size() < b2.fragments.size()) {
+			List<Fragment> tmpFragments = fragments;
+			List<Integer> tmpIndexes = indexes;
+			boolean tmpSorted = sorted;
+			fragments = b2.fragments;
+			indexes = b2.indexes;
+			sorted = b2.sorted;
+			b2.fragments = tmpFragments;
+			b2.indexes = tmpIndexes;
+			b2.sorted = tmpSorted;
+		}
+		if(b2.indexes.get(0) < indexes.get(indexes.size()-1)) {
+			sorted = false;
+		}
+		sorted = sorted && b2.sorted;
+		fragments.addAll(b2.fragments);
+		indexes.addAll(b2.indexes);
+		maxLastPos = Math.max(maxLastPos, b2.maxLastPos);
+		b2.fragments = null;
+		b2.indexes = null;
+	}
+	/**
+	 * @return Fragments of the set in input order
+	 */
+	List<Fragment> getSortedFragments() {
+		if(!sorted) {
+			//Sort by input index keeping the current position in the lower bits
+			long [] keys = new long [fragments.size()];
+			for(int i=0;i<keys.length;i++) {
+				keys[i] = ((long)indexes.get(i)<<32) | i;
+			}
+			Arrays.sort(keys);
+			List<Fragment> sortedFragments = new ArrayList<Fragment>(keys.length);
+			List<Integer> sortedIndexes = new ArrayList<Integer>(keys.length);
+			for(int i=0;i<keys.length;i++) {
+				sortedFragments.add(fragments.get((int)keys[i]));
+				sortedIndexes.add((int)(keys[i]>>>32));
+			}
+			fragments = sortedFragments;
+			indexes = sortedIndexes;
+			sorted = true;
+		}
+		return fragments;
+	}
+}
@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * SingleIndividualHaplotyper - Efficient heuristic algorithms for the SIH problem
+ * Copyright 2011 Jorge Duitama
+ *
+ * This file is part of SingleIndividualHaplotyper.
+ *
+ *     SingleIndividualHaplotyper is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     SingleIndividualHaplotyper is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with SingleIndividualHaplotyper.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package mpg.molgen.sih.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits blocks at positions where the linkage between the SNPs on the left and the SNPs
+ * on the right is supported by too few fragments. Each pair of consecutive calls of a fragment
+ * links the boundaries between both calls with the multiplicity of the fragment as weight.
+ * If calls have quality scores, the weight is multiplied by the smaller probability of both calls.
+ * Fragments spanning a weak boundary are trimmed to one subfragment on each side
+ */
+public class WeakLinksSplitter {
+	private double minSupport;
+	//Number of weak boundaries cut by this splitter
+	private int cuts = 0;
+	
+	/**
+	 * @param minSupport Boundaries with a support smaller than this value are cut
+	 */
+	public WeakLinksSplitter(double minSupport) {
+		this.minSupport = minSupport;
+	}
+	/**
+	 * @return Number of weak boundaries cut in all the blocks split by this object
+	 */
+	public int getCuts() {
+		return cuts;
+	}
+	/**
+	 * Splits the given blocks at weak boundaries
+	 * @param blocks Connected blocks sorted by first fragment
+	 * @return Connected blocks after splitting, keeping the order of the given blocks
+	 */
+	public List<Block> splitBlocks(List<Block> blocks) {
+		List<Block> answer = new ArrayList<Block>(blocks.size());
+		for(Block b:blocks) {
+			answer.addAll(splitBlock(b));
+		}
+		return answer;
+	}
+	/**
+	 * Splits the given block at weak boundaries
+	 * @param block Connected block
+	 * @return List with the given block if no weak boundary is found. Otherwise the connected
+	 * blocks of the trimmed fragments sorted by first fragment
+	 */
+	public List<Block> splitBlock(Block block) {
+		int firstPos = block.getFirstPos();
+		double [] support = calculateSupport(block);
+		//Only boundaries between the first and the last call of the block can be cut
+		int firstCall = support.length;
+		int lastCall = 0;
+		for(Fragment f:block.getFragments()) {
+			if(f.getnCalls()>0) {
+				firstCall = Math.min(firstCall, f.getCallPosition(0)-firstPos);
+				lastCall = Math.max(lastCall, f.getCallPosition(f.getnCalls()-1)-firstPos);
+			}
+		}
+		//Segment of each relative position. A new segment starts after each weak boundary
+		int [] segments = new int [support.length+1];
+		int blockCuts = 0;
+		for(int i=0;i<support.length;i++) {
+			if(i>=firstCall && i<lastCall && support[i] < minSupport && (i==firstCall || support[i-1] >= minSupport)) {
+				blockCuts++;
+			}
+			segments[i+1] = blockCuts;
+		}
+		cuts += blockCuts;
+		if(blockCuts == 0) {
+			List<Block> answer = new ArrayList<Block>(1);
+			answer.add(block);
+			return answer;
+		}
+		List<Fragment> trimmed = new ArrayList<Fragment>(block.getFragments().size());
+		for(Fragment f:block.getFragments()) {
+			int nCalls = f.getnCalls();
+			if(nCalls==0) {
+				trimmed.add(f);
+			}
+			int start = 0;
+			for(int k=1;k<=nCalls;k++) {
+				if(k==nCalls || segments[f.getCallPosition(k)-firstPos]!=segments[f.getCallPosition(start)-firstPos]) {
+					trimmed.add(f.getSubFragment(f.getCallPosition(start), f.getCallPosition(k-1)));
+					start = k;
+				}
+			}
+		}
+		Collections.sort(trimmed, new FragmentsComparator());
+		return new BlocksBuilder().buildBlocks(new Block(trimmed));
+	}
+	/**
+	 * Calculates the support of each boundary using a difference array over the links of consecutive calls
+	 * @return Array where the i-th entry is the support of the boundary between relative positions i and i+1
+	 */
+	private double [] calculateSupport(Block block) {
+		int firstPos = block.getFirstPos();
+		double [] answer = new double [block.getLastPos()-firstPos];
+		if(answer.length == 0) {
+			return answer;
+		}
+		for(Fragment f:block.getFragments()) {
+			int nCalls = f.getnCalls();
+			boolean qualities = f.hasCallProbabilities();
+			for(int k=1;k<nCalls;k++) {
+				double weight = f.getMultiplicity();
+				if(qualities) {
+					weight *= Math.min(f.getCallProbability(k-1), f.getCallProbability(k));
+				}
+				answer[f.getCallPosition(k-1)-firstPos] += weight;
+				int end = f.getCallPosition(k)-firstPos;
+				if(end < answer.length) {
+					answer[end] -= weight;
+				}
+			}
+		}
+		for(int i=1;i<answer.length;i++) {
+			answer[i] += answer[i-1];
+		}
+		return answer;
+	}
+}
@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * SingleIndividualHaplotyper - Efficient heuristic algorithms for the SIH problem
+ * Copyright 2011 Jorge Duitama
+ *
+ * This file is part of SingleIndividualHaplotyper.
+ *
+ *     SingleIndividualHaplotyper is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     SingleIndividualHaplotyper is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with SingleIndividualHaplotyper.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
+package mpg.molgen.sih.statistics;
+
+import java.io.PrintStream;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import mpg.molgen.sih.model.Fragment;
+import mpg.molgen.sih.model.MaskKernel;
+
+/**
+ * Microbenchmark comparing the distance kernels used to build the fragments graph for long fragments.
+ * Run with --add-modules jdk.incubator.vector to include the vectorized kernel
+ */
+public class KernelsBenchmark {
+	private int numFrags = 100;
+	//Long enough for the vector kernel, which delegates masks shorter than 128 words to the scalar loop
+	private int fragLength = 50000;
+	private double gapRate = 0.05;
+	private int repetitions = 5;
+	private Random r = new Random(1);
+
+	private List<Fragment> buildFragments() {
+		List<Fragment> frags = new ArrayList<Fragment>();
+		for(int i=0;i<numFrags;i++) {
+			char [] seq = new char [fragLength];
+			for(int j=0;j<seq.length;j++) {
+				if(j>0 && j<seq.length-1 && r.nextDouble() < gapRate) {
+					seq[j] = Fragment.NODATACHAR;
+				} else if(r.nextBoolean()) {
+					seq[j] = Fragment.ALLELE2CHAR;
+				} else {
+					seq[j] = Fragment.ALLELE1CHAR;
+				}
+			}
+			frags.add(new Fragment(""+(i+1), r.nextInt(fragLength/10), new String(seq)));
+		}
+		return frags;
+	}
+	private long [][] buildMask(List<Fragment> fragments, boolean alleles) {
+		long [][] answer = new long [fragments.size()][];
+		for(int i=0;i<answer.length;i++) {
+			Fragment f = fragments.get(i);
+			answer[i] = new long [(f.getLastPos()>>6)+1];
+			for(int k=0;k<f.getnCalls();k++) {
+				int pos = f.getCallPosition(k);
+				if(!alleles || f.getCallAllele(k)!=Fragment.ALLELE1CHAR) {
+					answer[i][pos>>6] |= 1L<<(pos&63);
+				}
+			}
+		}
+		return answer;
+	}
+	/**
+	 * Character based kernel used before calls were bit-packed
+	 */
+	private static int getHamming2CharAt(String calls, int firstPos, String sequence, int start) {
+		int relPos1 = Math.max(0, start-firstPos);
+		int relPos2 = Math.max(0, firstPos-start);
+		int disagree =0;
+		int total =0;
+		while(relPos1 <calls.length() && relPos2<sequence.length()) {
+			char c1 = calls.charAt(relPos1);
+			char c2 = sequence.charAt(relPos2);
+			if(c1!=Fragment.NODATACHAR && c2!=Fragment.NODATACHAR) {
+				if(c1 != c2) {
+					disagree++;
+				}
+				total++;
+			}
+			relPos1++;
+			relPos2++;
+		}
+		if(total > 0) {
+			return 2*disagree-total;
+		}
+		return 0;
+	}
+	private long runCharAt(List<Fragment> fragments, String [] calls) {
+		long checksum = 0;
+		for(int i=0;i<fragments.size();i++) {
+			int start1 = fragments.get(i).getFirstPos();
+			for(int j=i+1;j<fragments.size();j++) {
+				checksum += getHamming2CharAt(calls[i], start1, calls[j], fragments.get(j).getFirstPos());
+			}
+		}
+		return checksum;
+	}
+	private long runKernel(MaskKernel kernel, long [][] calls, long [][] alleles) {
+		long checksum = 0;
+		for(int i=0;i<calls.length;i++) {
+			for(int j=i+1;j<calls.length;j++) {
+				int nWords = Math.min(calls[i].length, calls[j].length);
+				long counts = kernel.count(calls[i], alleles[i], 0, calls[j], alleles[j], 0, nWords);
+				checksum += 2*MaskKernel.getDisagree(counts)-MaskKernel.getOverlap(counts);
+			}
+		}
+		return checksum;
+	}
+	private long runFragments(List<Fragment> fragments) {
+		long checksum = 0;
+		for(int i=0;i<fragments.size();i++) {
+			Fragment f1 = fragments.get(i);
+			for(int j=i+1;j<fragments.size();j++) {
+				checksum += f1.getHamming2(fragments.get(j));
+			}
+		}
+		return checksum;
+	}
+	public void run(PrintStream out) {
+		DecimalFormat df = new DecimalFormat("##0.00");
+		List<Fragment> fragments = buildFragments();
+		String [] calls = new String [fragments.size()];
+		for(int i=0;i<calls.length;i++) {
+			calls[i] = fragments.get(i).getExtendedCalls();
+		}
+		long [][] callsMasks = buildMask(fragments, false);
+		long [][] allelesMasks = buildMask(fragments, true);
+		MaskKernel scalar = new MaskKernel();
+		MaskKernel active = MaskKernel.getInstance();
+		long pairs = (long)numFrags*(numFrags-1)/2;
+		long fallbackPairs = 0;
+		for(int i=0;i<callsMasks.length;i++) {
+			for(int j=i+1;j<callsMasks.length;j++) {
+				if(Math.min(callsMasks[i].length, callsMasks[j].length) < active.getMinWords()) {
+					fallbackPairs++;
+				}
+			}
+		}
+		out.println("Fragments: "+numFrags+" Length: "+fragLength+" Pairs: "+pairs+" Active kernel: "+active.getName());
+		String activeName = active.getName();
+		if(fallbackPairs == pairs) {
+			activeName += " (scalar fallback, masks below "+active.getMinWords()+" words)";
+		} else if(fallbackPairs > 0) {
+			activeName += " ("+fallbackPairs+" pairs in scalar fallback)";
+		}
+		double [] times = new double[4];
+		long [] checksums = new long[4];
+		//The first repetition is a warm up for the JIT compiler
+		for(int rep=0;rep<=repetitions;rep++) {
+			long start = System.nanoTime();
+			checksums[0] = runCharAt(fragments, calls);
+			long t1 = System.nanoTime();
+			checksums[1] = runKernel(scalar, callsMasks, allelesMasks);
+			long t2 = System.nanoTime();
+			checksums[2] = runKernel(active, callsMasks, allelesMasks);
+			long t3 = System.nanoTime();
+			checksums[3] = runFragments(fragments);
+			long t4 = System.nanoTime();
+			if(rep>0) {
+				times[0] += t1-start;
+				times[1] += t2-t1;
+				times[2] += t3-t2;
+				times[3] += t4-t3;
+			}
+		}
+		String [] names = {"charAt loop","scalar popcount",activeName,"Fragment.getHamming2"};
+		for(int i=0;i<times.length;i++) {
+			double nsPerPair = times[i]/repetitions/pairs;
+			out.println(names[i]+"\tns/pair: "+df.format(nsPerPair)+"\tspeedup: "+df.format(times[0]/times[i])+"\tchecksum: "+checksums[i]);
+		}
+	}
+	public static void main(String[] args) {
+		KernelsBenchmark b = new KernelsBenchmark();
+		for(int i=0;i<args.length && args[i].charAt(0)=='-';i++) {
+			if("-n".equals(args[i])) {
+				i++;
+				b.numFrags = Integer.parseInt(args[i]);
+			} else if("-l".equals(args[i])) {
+				i++;
+				b.fragLength = Integer.parseInt(args[i]);
+			} else if("-g".equals(args[i])) {
+				i++;
+				b.gapRate = Double.parseDouble(args[i]);
+			} else if("-r".equals(args[i])) {
+				i++;
+				b.repetitions = Integer.parseInt(args[i]);
+			}
+		}
+		b.run(System.out);
+	}
+}
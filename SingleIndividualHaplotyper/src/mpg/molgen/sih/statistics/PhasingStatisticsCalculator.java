@@ -214,8 +214,12 @@ public class PhasingStatisticsCalculator {
 		for(int i=1;i<partition.size()-1;i+=2) {
 			int pos = partition.get(i);
 			int pos2 = partition.get(i+1);
-			List<Fragment> frags = b.getFragments(pos-2,pos2+2);
-			boolean [] subcut = calculateSubcut(b.getFragments(),frags,cut);
+			int [] fragIndexes = b.getFragmentIndexes(pos-2,pos2+2);
+			List<Fragment> frags = new ArrayList<Fragment>(fragIndexes.length);
+			for(int k:fragIndexes) {
+				frags.add(b.getFragments().get(k));
+			}
+			boolean [] subcut = calculateSubcut(fragIndexes,cut);
 			int startAln = Math.max(0, pos-10);
 			int endAln = Math.min(realHaplotype.length(), pos2+10);
 			out.println("Switch error between "+variantPositions.get(pos)+" and "+variantPositions.get(pos2));
@@ -268,15 +272,10 @@ public class PhasingStatisticsCalculator {
 		}
 		
 	}
-	private boolean[] calculateSubcut(List<Fragment> allFrags, List<Fragment> selectedFrags, boolean[] cut) {
-		boolean answer [] = new boolean [selectedFrags.size()];
-		int i = 0;
+	private boolean[] calculateSubcut(int [] selectedIndexes, boolean[] cut) {
+		boolean answer [] = new boolean [selectedIndexes.length];
 		for(int j=0;j<answer.length;j++) {
-			Fragment selF = selectedFrags.get(j);
-			while(!allFrags.get(i).getId().equals(selF.getId())) {
-				i++;
-			}
-			answer[j] = cut[i];
+			answer[j] = cut[selectedIndexes[j]];
 		}
 		return answer;
 	}